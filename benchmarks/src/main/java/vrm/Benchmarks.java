@@ -0,0 +1,39 @@
+package vrm;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+/**
+ * Shared benchmark fixtures.
+ */
+final class Benchmarks {
+
+  /**
+   * Private c-tor.
+   */
+  private Benchmarks() {}
+
+  /**
+   * @return path of a new temporary external memory file that's deleted on exit
+   */
+  static String temporaryFile(String prefix) throws IOException {
+    final File file = Files.createTempFile(prefix, ".txt").toFile();
+    file.deleteOnExit();
+    new File(file.getPath() + ExternalMemory.JOURNAL_SUFFIX).deleteOnExit();
+    return file.getPath();
+  }
+
+  /**
+   * Creates a free running VRM whose first VM has the given program loaded.
+   */
+  static VRM load(String... program) throws IOException, InterruptedException {
+    final VRM vrm = new VRM(null, temporaryFile("vrm-benchmark"));
+    vrm.realMachine.stepping = false;
+    // Creates the external memory file
+    vrm.reset();
+    vrm.load(program);
+    return vrm;
+  }
+
+}
@@ -0,0 +1,47 @@
+package vrm;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import vrm.exceptions.InvalidArgumentsException;
+import vrm.exceptions.InvalidCommandException;
+
+/**
+ * Instruction decoding: {@link Command#parse(Word)}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CommandBenchmark {
+
+  /**
+   * Word decoded by {@link #parse()}: an instruction with arguments, one without and a privileged one.
+   */
+  @Param({ "AD012", "HALT ", "STVM0" })
+  public String instruction;
+
+  private Word word;
+
+  @Setup
+  public void setUp() {
+    word = new Word(instruction);
+  }
+
+  @Benchmark
+  public Command parse() throws InvalidCommandException, InvalidArgumentsException {
+    return Command.parse(word);
+  }
+
+}
@@ -0,0 +1,86 @@
+package vrm;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Execution of a single instruction in a VM ({@link VirtualMachine#execute(Command)}, which includes logging and
+ * {@link Machine#execute(Command)}) for every non-privileged opcode.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ExecuteBenchmark {
+
+  /**
+   * VM word with 00001. Operand of ML, MD, DV and reads.
+   */
+  private static final int ONE = 50;
+  /**
+   * VM word with 00000. Operand of AD and SB, so repeated execution never overflows.
+   */
+  private static final int ZERO = 51;
+  /**
+   * VM word overwritten by CM.
+   */
+  private static final int SCRATCH = 52;
+
+  @Param({ "CR", "CM", "AD", "SB", "ML", "MD", "DV", "CP", "JP", "JE", "JL", "JM" })
+  public String opcode;
+
+  private VRM vrm;
+  private VirtualMachine vm;
+  private Command command;
+
+  @Setup
+  public void setUp() throws Exception {
+    vrm = Benchmarks.load("HALT");
+    vm = vrm.virtualMachine;
+    vm.memory.replace(ONE, "00001");
+    vm.memory.replace(ZERO, "00000");
+    vm.TMP = new Word("00007");
+
+    final int argument;
+    switch (opcode) {
+      case "AD": case "SB":
+        argument = ZERO;
+        break;
+      case "CM":
+        argument = SCRATCH;
+        break;
+      case "JP": case "JE": case "JL": case "JM":
+        argument = 10;
+        break;
+      default:
+        argument = ONE;
+    }
+    command = Command.parse(opcode + Utils.precedeZeroes(argument, Word.LENGTH - 2));
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    vrm.realMachine.close();
+  }
+
+  @Benchmark
+  public int execute() throws Exception {
+    vm.execute(command);
+    return vm.IC;
+  }
+
+}
@@ -0,0 +1,68 @@
+package vrm;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Block transfers of channel 3 ({@link ExternalMemory#read(int, Word[])} and {@link ExternalMemory#write(int, Word[])})
+ * over consecutive blocks.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ExternalMemoryBenchmark {
+
+  @Param({ "FILE", "MAPPED" })
+  public ExternalMemory.Backend backend;
+  @Param({ "NONE", "JOURNALED" })
+  public ExternalStorage.Durability durability;
+  @Param({ "TEXT", "BINARY" })
+  public ExternalMemoryFormat format;
+
+  private ExternalMemory memory;
+  private final Word[] words = new Word[ExternalMemory.WORD_IO];
+  private int block;
+
+  @Setup
+  public void setUp() throws Exception {
+    memory = new ExternalMemory(Benchmarks.temporaryFile("vrm-external"), backend, durability, format);
+    memory.initialize();
+    for (int i = 0; i < words.length; i++) {
+      words[i] = new Word(Utils.precedeZeroes(i, Word.LENGTH));
+    }
+  }
+
+  @TearDown
+  public void tearDown() {
+    memory.close();
+  }
+
+  @Benchmark
+  public Word[] read() {
+    block = (block + 1) % ExternalMemory.SIZE;
+    memory.read(block, words);
+    return words;
+  }
+
+  @Benchmark
+  public int write() {
+    block = (block + 1) % ExternalMemory.SIZE;
+    memory.write(block, words);
+    return block;
+  }
+
+}
@@ -0,0 +1,73 @@
+package vrm;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * End-to-end interpreter throughput: guest programs executed by {@link VRM#run(long)}, including timer interrupts and
+ * VM switches. The score is in instructions per second (divide by 10^6 for MIPS).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GuestProgramBenchmark {
+
+  /**
+   * Instructions executed per invocation.
+   */
+  private static final int INSTRUCTIONS = 10_000;
+
+  /**
+   * Endless programs:
+   * <ul>
+   *   <li>arithmetic - adds and subtracts 1 from a counter</li>
+   *   <li>branch - compares two words, then a branch that's never taken and one that's always taken</li>
+   * </ul>
+   */
+  @Param({ "arithmetic", "branch" })
+  public String program;
+
+  private VRM vrm;
+
+  @Setup
+  public void setUp() throws Exception {
+    switch (program) {
+      case "arithmetic":
+        vrm = Benchmarks.load("CR010", "AD011", "SB011", "CM010", "JP000", "", "", "", "", "", "00005", "00001");
+        break;
+      case "branch":
+        vrm = Benchmarks.load("CR010", "CP011", "JM000", "JL000", "", "", "", "", "", "", "00001", "00002");
+        break;
+      default:
+        throw new IllegalArgumentException("Unknown program: " + program);
+    }
+  }
+
+  @TearDown
+  public void tearDown() {
+    vrm.realMachine.close();
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(INSTRUCTIONS)
+  public long run() throws InterruptedException {
+    vrm.run(vrm.realMachine.instructions + INSTRUCTIONS);
+    return vrm.realMachine.instructions;
+  }
+
+}
@@ -0,0 +1,71 @@
+package vrm;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Work done by the RM around VM instructions: address translation through the page table (which parses page table
+ * words with {@link Word#toNumber()}) and VM context switches.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TranslationBenchmark {
+
+  private VRM vrm;
+  private RealMachine rm;
+  private VirtualMachine vm;
+  private Command command;
+  private int address;
+  private final Word number = new Word("01234");
+
+  @Setup
+  public void setUp() throws Exception {
+    vrm = Benchmarks.load("HALT");
+    rm = vrm.realMachine;
+    vm = vrm.virtualMachine;
+    command = Command.parse("RD045");
+  }
+
+  @TearDown
+  public void tearDown() {
+    rm.close();
+  }
+
+  @Benchmark
+  public int toNumber() {
+    return number.toNumber();
+  }
+
+  @Benchmark
+  public int getAbsoluteAddress() {
+    address = (address + 7) % RealMachine.VM_MEMORY_SIZE;
+    return rm.getAbsoluteAddress(address);
+  }
+
+  @Benchmark
+  public Command getAbsoluteCommand() {
+    return rm.getAbsoluteCommand(command);
+  }
+
+  @Benchmark
+  public Comparison saveAndRestoreRegisters() {
+    vm.saveRegisters();
+    vm.restoreRegisters();
+    return vm.C;
+  }
+
+}
@@ -0,0 +1,312 @@
+package vrm;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import vrm.annotations.Nullable;
+import vrm.jobs.Job;
+
+/**
+ * Executes every guest program of a workload directory headless to HALT in several execution modes and prints a
+ * summary table:
+ * <pre>
+ * java -cp benchmarks/target/benchmarks.jar vrm.WorkloadHarness [-r RUNS] [-w WARMUP] [DIRECTORY]
+ * </pre>
+ * <ul>
+ *   <li>DIRECTORY - program images with a single word per line. Keyboard input of program X is read from X.input,
+ *   a word per line. Defaults to workloads.</li>
+ *   <li>-r, --runs RUNS - measured runs of every workload and mode. The median is reported. Defaults to 5.</li>
+ *   <li>-w, --warmup WARMUP - unmeasured runs before the measured ones. Defaults to 5.</li>
+ * </ul>
+ * Allocations are measured on the VRM threads only, e.g. {@link IoScheduler} dispatcher allocations aren't included.
+ */
+public class WorkloadHarness {
+
+  private static final String USAGE = "Usage: java vrm.WorkloadHarness [-r RUNS] [-w WARMUP] [DIRECTORY]";
+  private static final String INPUT_SUFFIX = ".input";
+  /**
+   * Amount of RMs that run a workload concurrently in the scheduled modes. A single RM waits for each of its requests,
+   * so the scheduler queue would never hold more than one request to order.
+   */
+  private static final int SCHEDULED_MACHINES = 4;
+
+  /**
+   * Execution mode of a run.
+   */
+  private enum Mode {
+    /**
+     * Channel 3 accesses the external memory directly. Execution statistics are collected.
+     */
+    DIRECT,
+    /**
+     * Same as {@link #DIRECT}, but without execution statistics, so interrupts aren't reported.
+     */
+    NO_STATS,
+    /**
+     * Guest instructions are sampled by a {@link Profiler}.
+     */
+    PROFILED,
+    /**
+     * {@link #SCHEDULED_MACHINES} RMs run the workload at once. Their channel 3 transfers are ordered by a shared
+     * {@link IoScheduler} with the given policy.
+     */
+    FIFO(IoScheduler.Policy.FIFO),
+    SCAN(IoScheduler.Policy.SCAN),
+    DEADLINE(IoScheduler.Policy.DEADLINE);
+
+    @Nullable
+    final IoScheduler.Policy policy;
+
+    Mode() {
+      this(null);
+    }
+
+    Mode(@Nullable IoScheduler.Policy policy) {
+      this.policy = policy;
+    }
+
+    int machines() {
+      return (policy == null) ? 1 : SCHEDULED_MACHINES;
+    }
+  }
+
+  /**
+   * Median run of a workload in a mode. Counts are summed over the RMs of the run.
+   */
+  private static class Result {
+    final String workload;
+    final Mode mode;
+    final boolean halted;
+    final long instructions;
+    final long nanos;
+    final long allocatedBytes;
+    /**
+     * Timer, super, program and I/O interrupts or null when statistics weren't collected.
+     */
+    @Nullable
+    final long[] interrupts;
+
+    Result(String workload, Mode mode, boolean halted, long instructions, long nanos, long allocatedBytes,
+           @Nullable long[] interrupts) {
+      this.workload = workload;
+      this.mode = mode;
+      this.halted = halted;
+      this.instructions = instructions;
+      this.nanos = nanos;
+      this.allocatedBytes = allocatedBytes;
+      this.interrupts = interrupts;
+    }
+  }
+
+  private static final com.sun.management.ThreadMXBean THREADS =
+      (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+  /**
+   * Private c-tor.
+   */
+  private WorkloadHarness() {}
+
+  public static void main(String[] args) throws Exception {
+    int runs = 5;
+    int warmup = 5;
+    String directory = "workloads";
+
+    for (int i = 0; i < args.length; i++) {
+      switch (args[i]) {
+        case "-r":
+        case "--runs":
+          runs = Integer.parseInt(value(args, ++i));
+          break;
+        case "-w":
+        case "--warmup":
+          warmup = Integer.parseInt(value(args, ++i));
+          break;
+        case "-h":
+        case "--help":
+          System.out.println(USAGE);
+          return;
+        default:
+          if (args[i].startsWith("-")) {
+            exit("Unexpected argument: " + args[i]);
+          }
+          directory = args[i];
+      }
+    }
+    if (runs <= 0 || warmup < 0) {
+      exit("Invalid amount of runs");
+    }
+
+    final File[] files = new File(directory).listFiles(file -> file.isFile() && !file.getName().endsWith(INPUT_SUFFIX));
+    if (files == null || files.length == 0) {
+      exit("No workloads in " + directory);
+    }
+    Arrays.sort(files);
+
+    THREADS.setThreadAllocatedMemoryEnabled(true);
+    final List<Result> results = new ArrayList<>();
+    for (File file : files) {
+      final Job job = Job.fromFile(file.toPath(), readInput(file));
+      for (Mode mode : Mode.values()) {
+        results.add(measure(file.getName(), job, mode, warmup, runs));
+      }
+    }
+
+    print(results, runs);
+  }
+
+  private static String[] readInput(File program) throws IOException {
+    final File input = new File(program.getPath() + INPUT_SUFFIX);
+    if (!input.isFile()) return new String[0];
+
+    final List<String> words = new ArrayList<>();
+    for (String line : Files.readAllLines(input.toPath())) {
+      if (line.trim().isEmpty()) continue;
+      words.add(line.trim());
+    }
+    return words.toArray(new String[0]);
+  }
+
+  /**
+   * Executes the job on {@link Mode#machines()} VRMs at once warmup + runs times.
+   * @return median run by wall time
+   */
+  private static Result measure(String workload, Job job, Mode mode, int warmup, int runs) throws Exception {
+    final IoScheduler scheduler = (mode.policy == null) ? null : new IoScheduler(mode.policy);
+    final List<VRM> vrms = new ArrayList<>();
+    final ExecutorService executor = Executors.newFixedThreadPool(mode.machines());
+
+    final List<Result> measured = new ArrayList<>();
+    try {
+      for (int i = 0; i < mode.machines(); i++) {
+        final VRM vrm = new VRM(null, Benchmarks.temporaryFile("vrm-workload"));
+        vrms.add(vrm);
+        vrm.realMachine.stepping = false;
+        vrm.realMachine.stats.setEnabled(mode != Mode.NO_STATS);
+        if (mode == Mode.PROFILED) {
+          vrm.setProfiler(new Profiler());
+        }
+        vrm.realMachine.setIoScheduler(scheduler);
+      }
+
+      for (int run = 0; run < warmup + runs; run++) {
+        final List<Callable<Long>> tasks = new ArrayList<>();
+        for (VRM vrm : vrms) {
+          vrm.reset();
+          vrm.realMachine.stats.reset();
+          for (String word : job.input) {
+            vrm.realMachine.keyboard.feed(Utils.toWord(word));
+          }
+          tasks.add(() -> execute(vrm, job));
+        }
+
+        final long start = System.nanoTime();
+        long allocatedBytes = 0;
+        for (Future<Long> allocated : executor.invokeAll(tasks)) {
+          allocatedBytes += allocated.get();
+        }
+        final long nanos = System.nanoTime() - start;
+
+        if (run < warmup) continue;
+        boolean halted = true;
+        long instructions = 0;
+        final long[] interrupts = new long[4];
+        for (VRM vrm : vrms) {
+          halted &= vrm.realMachine.halted;
+          instructions += vrm.realMachine.instructions;
+          final long[] counts = interrupts(vrm.realMachine.stats);
+          for (int i = 0; i < counts.length; i++) {
+            interrupts[i] += counts[i];
+          }
+        }
+        measured.add(new Result(workload, mode, halted, instructions, nanos, allocatedBytes,
+            (mode == Mode.NO_STATS) ? null : interrupts));
+      }
+    } finally {
+      executor.shutdown();
+      executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+      for (VRM vrm : vrms) {
+        vrm.realMachine.close();
+      }
+      if (scheduler != null) {
+        scheduler.close();
+      }
+    }
+
+    measured.sort((a, b) -> Long.compare(a.nanos, b.nanos));
+    return measured.get(measured.size() / 2);
+  }
+
+  /**
+   * Executes the loaded job on the calling thread.
+   * @return bytes allocated by the calling thread meanwhile
+   */
+  private static long execute(VRM vrm, Job job) throws InterruptedException {
+    final long threadId = Thread.currentThread().getId();
+    final long allocated = THREADS.getThreadAllocatedBytes(threadId);
+    vrm.load(job.program.toArray(new String[0]));
+    vrm.run(job.instructionLimit);
+    return THREADS.getThreadAllocatedBytes(threadId) - allocated;
+  }
+
+  private static long[] interrupts(ExecutionStats stats) {
+    return new long[] {
+        stats.getTimerInterrupts(), sum(stats.getSuperInterrupts()), sum(stats.getProgramInterrupts()),
+        sum(stats.getIoInterrupts())
+    };
+  }
+
+  private static long sum(Map<String, Long> counts) {
+    long sum = 0;
+    for (long count : counts.values()) {
+      sum += count;
+    }
+    return sum;
+  }
+
+  private static long sum(long[] counts) {
+    long sum = 0;
+    for (long count : counts) {
+      sum += count;
+    }
+    return sum;
+  }
+
+  private static void print(List<Result> results, int runs) {
+    final String format = "%-12s %-9s %3s %-6s %10s %10s %8s %22s %12s %10s%n";
+    System.out.printf("Median of %d runs%n", runs);
+    System.out.printf(format, "Workload", "Mode", "RMs", "Status", "Instr", "Time ms", "MIPS", "Interrupts TI/SI/PI/IO",
+        "Alloc bytes", "B/instr");
+    for (Result result : results) {
+      final String interrupts = (result.interrupts == null) ? "-" : String.format("%d/%d/%d/%d",
+          result.interrupts[0], result.interrupts[1], result.interrupts[2], result.interrupts[3]);
+      System.out.printf(format, result.workload, result.mode, result.mode.machines(), result.halted ? "HALT" : "LIMIT", result.instructions,
+          String.format("%.3f", result.nanos / 1e6), String.format("%.3f", result.instructions * 1e3 / result.nanos),
+          interrupts, result.allocatedBytes,
+          String.format("%.1f", (double) result.allocatedBytes / Math.max(1, result.instructions)));
+    }
+  }
+
+  private static String value(String[] args, int index) {
+    if (index >= args.length) {
+      exit("Missing value for " + args[index - 1]);
+    }
+    return args[index];
+  }
+
+  private static void exit(String message) {
+    System.err.println(message);
+    System.err.println(USAGE);
+    System.exit(2);
+  }
+
+}
@@ -0,0 +1,48 @@
+package test;
+
+import org.junit.Test;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import vrm.CommandLog;
+import static org.junit.Assert.*;
+
+public class CommandLogTest {
+
+  @Test
+  public void ringBuffer() {
+    final CommandLog log = new CommandLog(3);
+    for (int i = 0; i < 5; i++) {
+      log.add("CR00" + i);
+    }
+
+    // Only the latest entries are retained, positions keep counting
+    assertEquals(3, log.size());
+    assertEquals(5, log.getTotal());
+    assertEquals(2, log.getFirst());
+    assertNull(log.get(1));
+    assertEquals("CR002", log.get(2));
+    assertEquals(Arrays.asList("CR002", "CR003", "CR004"), Arrays.asList(log.toArray()));
+
+    log.clear();
+    assertEquals(0, log.size());
+    assertNull(log.get(4));
+  }
+
+  @Test
+  public void spill() throws IOException {
+    final File file = new File("command_log_test.txt");
+    final CommandLog log = new CommandLog(2);
+    log.setSpillFile(file);
+    for (int i = 0; i < 4; i++) {
+      log.add("AD00" + i);
+    }
+    log.setSpillFile(null);
+
+    // Spill file keeps the full history
+    assertEquals(Arrays.asList("AD000", "AD001", "AD002", "AD003"), Files.readAllLines(file.toPath()));
+    assertTrue(file.delete());
+  }
+
+}
@@ -0,0 +1,109 @@
+package test;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import javax.management.Attribute;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import vrm.ExecutionStats;
+import vrm.ExternalMemory;
+import vrm.ExternalMemoryFormat;
+import vrm.ExternalStorage;
+import vrm.Utils;
+import vrm.VRM;
+import static org.junit.Assert.*;
+
+public class ExecutionStatsTest {
+
+  private VRM vrm;
+  private ObjectName name;
+
+  @Before
+  public void createMachine() throws Exception {
+    vrm = new VRM(null, "execution_stats_test.txt");
+    vrm.realMachine.stepping = false;
+    vrm.reset();
+    name = new ObjectName("vrm:type=RealMachine,name=" + vrm.realMachine);
+  }
+
+  @After
+  public void closeMachine() {
+    vrm.realMachine.close();
+  }
+
+  @Test
+  public void counters() throws Exception {
+    final ExecutionStats stats = vrm.realMachine.stats;
+    stats.setEnabled(true);
+
+    // Endless loop. A timer interrupt (PD, STVM and SVRG) follows every 10 VM instructions.
+    vrm.load("CR010", "JP000", "", "", "", "", "", "", "", "", "00001");
+    vrm.run(40);
+
+    final Map<String, Long> counts = stats.getInstructionCounts();
+    assertEquals(vrm.realMachine.instructions, stats.getInstructions());
+    assertEquals(counts.get("CR"), counts.get("JP"));
+    assertEquals(0, (long) counts.get("AD"));
+    assertEquals(3, stats.getTimerInterrupts());
+    assertEquals(3, (long) counts.get("PD"));
+
+    // Disabled collection doesn't count
+    stats.setEnabled(false);
+    final long instructions = stats.getInstructions();
+    vrm.run(vrm.realMachine.instructions + 10);
+    assertEquals(instructions, stats.getInstructions());
+
+    stats.reset();
+    assertEquals(0, stats.getInstructions());
+  }
+
+  @Test
+  public void unrepresentableWord() throws Exception {
+    // Binary external memory can't store keyboard input with symbols outside its alphabet
+    final String path = "execution_stats_binary_test.txt";
+    new File(path).delete();
+    new ExternalMemory(path, ExternalMemory.Backend.FILE, ExternalStorage.Durability.NONE, ExternalMemoryFormat.BINARY)
+        .close();
+    final VRM binary = new VRM(null, path);
+    try {
+      binary.realMachine.stepping = false;
+      binary.reset();
+      binary.realMachine.stats.setEnabled(true);
+      binary.realMachine.keyboard.feed(Utils.toWord("#=("));
+
+      // The failed WD is a program interrupt, the program still halts
+      binary.load("GD020", "WD020", "HALT");
+      binary.run(0);
+
+      assertTrue(binary.realMachine.halted);
+      assertEquals(1, (long) binary.realMachine.stats.getProgramInterrupts().get("INV_ASSIGN"));
+    } finally {
+      binary.realMachine.close();
+      new File(path).delete();
+    }
+  }
+
+  @Test
+  public void jmx() throws Exception {
+    final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    assertTrue(server.isRegistered(name));
+
+    // Enable through JMX
+    server.setAttribute(name, new Attribute("Enabled", true));
+    vrm.load("HALT");
+    vrm.run(0);
+
+    // STVM that started the VM and HALT
+    assertEquals(2L, server.getAttribute(name, "Instructions"));
+    assertEquals(1L, vrm.realMachine.stats.getSuperInterrupts().get("HALT").longValue());
+
+    // Closing the RM unregisters it
+    vrm.realMachine.close();
+    assertFalse(server.isRegistered(name));
+  }
+
+}
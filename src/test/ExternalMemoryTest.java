@@ -2,13 +2,27 @@ package test;
 
 import org.junit.Before;
 import org.junit.Test;
+import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
 import vrm.ExternalMemory;
+import vrm.ExternalMemoryConverter;
+import vrm.ExternalMemoryFormat;
+import vrm.ExternalStorage;
+import vrm.SegmentedExternalMemory;
 import vrm.Word;
+import vrm.exceptions.UnrepresentableWordException;
 import static org.junit.Assert.*;
 
 /**
@@ -171,6 +185,474 @@ public class ExternalMemoryTest {
     assertEquals(expected, actual);
   }
 
+  @Test
+  public void readQueuedWrite() throws IOException {
+    // Open external mem object
+    final ExternalMemory mem = new ExternalMemory(PATH);
+    mem.initialize();
+    final Word[] words = new Word[10];
+
+    // Write the same block twice, only the latter should remain
+    mem.setPointer(1);
+    for (int i = 0; i < words.length; i++) {
+      words[i] = new Word("AD00" + i);
+    }
+    mem.write(words);
+    for (int i = 0; i < words.length; i++) {
+      words[i] = new Word("SB00" + i);
+    }
+    mem.write(words);
+
+    // Queued write must be visible to a read before it reaches the file
+    final String expected = "SB000 SB001 SB002 SB003 SB004 SB005 SB006 SB007 SB008 SB009\n";
+    assertEquals(expected, lineToString(mem.read()));
+    assertFalse(new String(Files.readAllBytes(Paths.get(PATH))).contains(expected));
+
+    // Barrier
+    mem.flush();
+    assertTrue(new String(Files.readAllBytes(Paths.get(PATH))).contains(expected));
+
+    mem.close();
+  }
+
+  @Test
+  public void mappedBackend() throws IOException {
+    // Write through a mapped file
+    final ExternalMemory mapped = new ExternalMemory(PATH, ExternalMemory.Backend.MAPPED, ExternalStorage.Durability.PERIODIC);
+    mapped.initialize();
+    final Word[] words = new Word[10];
+    mapped.setPointer(1);
+    for (int i = 0; i < words.length; i++) {
+      words[i] = new Word("ML00" + i);
+    }
+    mapped.write(words);
+    mapped.close();
+
+    // Layout must match the text file
+    final String expected = "00000 00000 00000 00000 00000 00000 00000 00000 00000 00000\n" +
+                            "ML000 ML001 ML002 ML003 ML004 ML005 ML006 ML007 ML008 ML009\n";
+    assertTrue(new String(Files.readAllBytes(Paths.get(PATH))).startsWith(expected));
+
+    // Read it back through a regular file
+    final ExternalMemory file = new ExternalMemory(PATH);
+    file.setPointer(1);
+    assertEquals("ML000 ML001 ML002 ML003 ML004 ML005 ML006 ML007 ML008 ML009\n", lineToString(file.read()));
+    file.close();
+  }
+
+  @Test
+  public void shortFile() throws IOException {
+    final String zeroes = "00000 00000 00000 00000 00000 00000 00000 00000 00000 00000\n";
+    final Word[] words = new Word[10];
+    for (int i = 0; i < words.length; i++) {
+      words[i] = new Word("SH00" + i);
+    }
+
+    for (ExternalMemory.Backend backend : ExternalMemory.Backend.values()) {
+      // Files of older versions have 100 blocks only
+      String initial = "";
+      for (int i = 0; i < 100; i++) {
+        initial += zeroes;
+      }
+      Files.write(Paths.get(PATH), initial.getBytes());
+
+      // Blocks past the end read as zeroes without touching the file
+      final ExternalMemory mem = new ExternalMemory(PATH, backend, ExternalStorage.Durability.NONE);
+      mem.setPointer(500);
+      assertEquals(zeroes, lineToString(mem.readBlocks(99, 2)[1]));
+      assertEquals(zeroes, lineToString(mem.read()));
+      assertEquals(6000, new File(PATH).length());
+
+      // The first write past the end extends the file with zeroes
+      mem.write(words);
+      mem.close();
+      final List<String> lines = Files.readAllLines(Paths.get(PATH));
+      assertEquals(ExternalMemory.SIZE * 60, new File(PATH).length());
+      assertEquals("SH000 SH001 SH002 SH003 SH004 SH005 SH006 SH007 SH008 SH009", lines.get(500));
+      assertEquals(zeroes.trim(), lines.get(250));
+      assertFalse(new String(Files.readAllBytes(Paths.get(PATH))).contains("\0"));
+    }
+  }
+
+  @Test
+  public void binaryFormat() throws IOException {
+    final String line = "HALT  00042 000-5 AD012 99999 Ab_?* 00000 IOI_3 PI_OF 12345\n";
+    final String[] symbols = { "HALT ", "00042", "000-5", "AD012", "99999", "Ab_?*", "00000", "IOI_3", "PI_OF", "12345" };
+    final Word[] words = new Word[10];
+    for (int i = 0; i < words.length; i++) {
+      words[i] = new Word(symbols[i]);
+    }
+
+    // Write a new (truncated) file in the binary format
+    final ExternalMemory binary = new ExternalMemory(PATH, ExternalMemory.Backend.FILE,
+        ExternalStorage.Durability.ALWAYS, ExternalMemoryFormat.BINARY);
+    binary.initialize();
+    binary.setPointer(3);
+    binary.write(words);
+    binary.close();
+
+    // 16 byte header + 4 bytes per word
+    assertEquals(16 + ExternalMemory.SIZE * 40, new File(PATH).length());
+
+    // Format is detected when reopening
+    final ExternalMemory reopened = new ExternalMemory(PATH);
+    assertEquals(ExternalMemoryFormat.BINARY, reopened.getFormat());
+    reopened.setPointer(3);
+    assertEquals(line, lineToString(reopened.read()));
+    reopened.close();
+
+    // Convert to text and back
+    final File text = new File(PATH + ".txt");
+    final File back = new File(PATH + ".bin");
+    ExternalMemoryConverter.convert(new File(PATH), text, ExternalMemoryFormat.TEXT);
+    assertTrue(new String(Files.readAllBytes(text.toPath())).contains(line));
+    ExternalMemoryConverter.convert(text, back, ExternalMemoryFormat.BINARY);
+    assertArrayEquals(Files.readAllBytes(Paths.get(PATH)), Files.readAllBytes(back.toPath()));
+
+    // A word outside the binary alphabet is refused and leaves both the memory and a converted target intact
+    final ExternalMemory refusing = new ExternalMemory(PATH);
+    refusing.setPointer(3);
+    words[0] = new Word("#=(1)");
+    try {
+      refusing.write(words);
+      fail();
+    } catch (UnrepresentableWordException e) {
+      assertEquals(line, lineToString(refusing.read()));
+    }
+    refusing.close();
+    final byte[] converted = Files.readAllBytes(back.toPath());
+    Files.write(text.toPath(), "#=(1) 00000 00000 00000 00000 00000 00000 00000 00000 00000\n".getBytes());
+    try {
+      ExternalMemoryConverter.convert(text, back, ExternalMemoryFormat.BINARY);
+      fail();
+    } catch (UnrepresentableWordException e) {
+      assertArrayEquals(converted, Files.readAllBytes(back.toPath()));
+    }
+    final File[] temporaries = back.getAbsoluteFile().getParentFile().listFiles((dir, name) -> name.endsWith(".tmp"));
+    assertEquals(0, temporaries.length);
+    text.delete();
+    back.delete();
+
+    // Text that happens to start with the format's name isn't mistaken for a binary header
+    Files.write(Paths.get(PATH), "VRMB0 VRM00 00000 00000 00000 00000 00000 00000 00000 00000\n".getBytes());
+    assertEquals(ExternalMemoryFormat.TEXT, ExternalMemoryFormat.detect(new File(PATH)));
+  }
+
+  @Test
+  public void cache() throws IOException {
+    final ExternalMemory mem = new ExternalMemory(PATH);
+    mem.initialize();
+    mem.setCacheSize(2);
+    final Word[] words = new Word[10];
+    for (int i = 0; i < words.length; i++) {
+      words[i] = new Word("CP00" + i);
+    }
+    final String expected = "CP000 CP001 CP002 CP003 CP004 CP005 CP006 CP007 CP008 CP009\n";
+
+    // Miss, then hit
+    mem.read();
+    mem.read();
+    assertEquals(1, mem.getCacheMisses());
+    assertEquals(1, mem.getCacheHits());
+
+    // Dirty block is served from the cache and isn't written yet
+    mem.write(words);
+    assertEquals(expected, lineToString(mem.read()));
+    assertEquals(2, mem.getCacheHits());
+    assertFalse(new String(Files.readAllBytes(Paths.get(PATH))).startsWith(expected));
+
+    // Draining the queue at an idle point leaves it in the cache
+    mem.drain();
+    assertFalse(new String(Files.readAllBytes(Paths.get(PATH))).startsWith(expected));
+
+    // Reading 2 other blocks evicts the dirty one
+    mem.setPointer(1);
+    mem.read();
+    mem.setPointer(2);
+    mem.read();
+    assertEquals(1, mem.getCacheEvictions());
+
+    // Evicted block is written on the next flush
+    mem.close();
+    assertTrue(new String(Files.readAllBytes(Paths.get(PATH))).startsWith(expected));
+  }
+
+  @Test
+  public void initializeAllBlocks() {
+    final ExternalMemory mem = new ExternalMemory(PATH);
+    mem.initialize();
+
+    // Every block must be readable, including the last one
+    mem.setPointer(ExternalMemory.SIZE - 1);
+    assertEquals("00000 00000 00000 00000 00000 00000 00000 00000 00000 00000\n", lineToString(mem.read()));
+    mem.close();
+
+    assertEquals(ExternalMemory.SIZE * 60, new File(PATH).length());
+  }
+
+  @Test
+  public void concurrentAccess() throws Exception {
+    final ExternalMemory mem = new ExternalMemory(PATH, ExternalMemory.Backend.FILE, ExternalStorage.Durability.NONE);
+    mem.initialize();
+    mem.setCacheSize(16);
+
+    // Every thread writes and reads back its own range of blocks, all threads read block 0
+    final int threads = 8;
+    final int blocks = ExternalMemory.SIZE / threads;
+    final ExecutorService executor = Executors.newFixedThreadPool(threads);
+    final List<Future<?>> futures = new ArrayList<>();
+    for (int t = 0; t < threads; t++) {
+      final int first = t * blocks;
+      futures.add(executor.submit(() -> {
+        for (int block = first; block < first + blocks; block++) {
+          final Word[] words = new Word[10];
+          for (int i = 0; i < words.length; i++) {
+            words[i] = new Word(String.format("%03d%02d", block, i));
+          }
+          mem.write(block, words);
+          assertEquals(lineToString(words), lineToString(mem.read(block)));
+          assertEquals(10, mem.read(0).length);
+        }
+        return null;
+      }));
+    }
+    for (Future<?> future : futures) {
+      future.get();
+    }
+    executor.shutdown();
+
+    // Everything reaches the file
+    mem.close();
+    final List<String> lines = Files.readAllLines(Paths.get(PATH));
+    assertEquals("99900 99901 99902 99903 99904 99905 99906 99907 99908 99909", lines.get(999));
+    assertEquals("12300 12301 12302 12303 12304 12305 12306 12307 12308 12309", lines.get(123));
+  }
+
+  @Test
+  public void readAhead() {
+    final ExternalMemory mem = new ExternalMemory(PATH, ExternalMemory.Backend.FILE, ExternalStorage.Durability.NONE);
+    mem.initialize();
+    for (int block = 0; block < 20; block++) {
+      final Word[] words = new Word[10];
+      for (int i = 0; i < words.length; i++) {
+        words[i] = new Word(String.format("%03d%02d", block, i));
+      }
+      mem.write(block, words);
+    }
+    mem.flush();
+    // Prefetch synchronously, as part of the read that requests it
+    mem.setReadAhead(8, Runnable::run);
+
+    // Third sequential read triggers a prefetch of the next 4 blocks
+    for (int block = 0; block < 3; block++) {
+      mem.read(block);
+    }
+    assertEquals(4, mem.getPrefetchedBlocks());
+
+    // Prefetched blocks are served once and hold the written words
+    assertEquals("00300 00301 00302 00303 00304 00305 00306 00307 00308 00309\n", lineToString(mem.read(3)));
+    assertEquals(1, mem.getPrefetchHits());
+
+    // A modified block isn't served from the read-ahead
+    final Word[] words = new Word[10];
+    for (int i = 0; i < words.length; i++) {
+      words[i] = new Word("NEW0" + i);
+    }
+    mem.write(4, words);
+    assertEquals("NEW00 NEW01 NEW02 NEW03 NEW04 NEW05 NEW06 NEW07 NEW08 NEW09\n", lineToString(mem.read(4)));
+    assertEquals(1, mem.getPrefetchHits());
+
+    // Random access drops the rest, the modified block was dropped already
+    mem.read(15);
+    assertEquals(3, mem.getPrefetchWasted());
+    assertEquals(0, mem.getPrefetchFailures());
+
+    // A prefetch that can't be queued is counted
+    mem.setReadAhead(8, runnable -> { throw new RejectedExecutionException(); });
+    for (int block = 0; block < 3; block++) {
+      mem.read(block);
+    }
+    assertEquals(1, mem.getPrefetchFailures());
+    mem.close();
+  }
+
+  @Test
+  public void journalReplay() throws IOException {
+    final String journal = PATH + ExternalMemory.JOURNAL_SUFFIX;
+    ExternalMemory mem = new ExternalMemory(PATH, ExternalMemory.Backend.FILE, ExternalStorage.Durability.JOURNALED);
+    mem.initialize();
+    final Word[] words = new Word[10];
+    for (int i = 0; i < words.length; i++) {
+      words[i] = new Word("JRN0" + i);
+    }
+    mem.setPointer(3);
+    mem.write(words);
+    mem.drain();
+
+    // Journaled, but not checkpointed yet
+    final byte[] records = Files.readAllBytes(Paths.get(journal));
+    assertTrue(records.length > 0);
+
+    // A barrier checkpoints
+    mem.flush();
+    assertEquals(0, new File(journal).length());
+    mem.close();
+    assertFalse(new File(journal).exists());
+
+    for (ExternalStorage.Durability durability : ExternalStorage.Durability.values()) {
+      // Simulate a crash that lost the write to the file but not the journal, which ends with a torn record
+      final ExternalMemory lost = new ExternalMemory(PATH);
+      lost.initialize();
+      lost.close();
+      Files.write(Paths.get(journal), records);
+      Files.write(Paths.get(journal), new byte[] { 0, 0, 0, 0, 0, 0, 0, 42, 0 }, StandardOpenOption.APPEND);
+
+      // Valid records are replayed when opened, whatever the durability
+      mem = new ExternalMemory(PATH, ExternalMemory.Backend.FILE, durability);
+      assertEquals(durability == ExternalStorage.Durability.JOURNALED, new File(journal).exists());
+      mem.setPointer(3);
+      assertEquals("JRN00 JRN01 JRN02 JRN03 JRN04 JRN05 JRN06 JRN07 JRN08 JRN09\n", lineToString(mem.read()));
+      mem.close();
+    }
+  }
+
+  @Test
+  public void concurrentJournal() throws Exception {
+    final String journal = PATH + ExternalMemory.JOURNAL_SUFFIX;
+    final ExternalMemory mem = new ExternalMemory(PATH, ExternalMemory.Backend.FILE, ExternalStorage.Durability.JOURNALED);
+    mem.initialize();
+
+    // Checkpoints race with writes of other threads
+    final int writers = 4;
+    final ExecutorService executor = Executors.newFixedThreadPool(writers + 1);
+    final List<Future<?>> futures = new ArrayList<>();
+    for (int i = 0; i < writers; i++) {
+      final int block = i;
+      futures.add(executor.submit(() -> {
+        for (int j = 0; j < 500; j++) {
+          mem.write(block, words(String.format("W%d%03d", block, j)));
+          mem.drain();
+        }
+      }));
+    }
+    // Interrupts would close the file channels, so the flusher is stopped with a flag
+    final AtomicBoolean writing = new AtomicBoolean(true);
+    final Future<?> flusher = executor.submit(() -> {
+      while (writing.get()) {
+        mem.flush();
+      }
+    });
+    for (Future<?> future : futures) {
+      future.get();
+    }
+    writing.set(false);
+    flusher.get();
+    executor.shutdown();
+
+    // Journaled after the last checkpoint
+    for (int block = 0; block < writers; block++) {
+      mem.write(block, words("LAST" + block));
+    }
+    mem.drain();
+    final byte[] records = Files.readAllBytes(Paths.get(journal));
+    mem.close();
+
+    // The file lost everything since the last checkpoint, yet the journal has no gap before the last records
+    final ExternalMemory lost = new ExternalMemory(PATH);
+    lost.initialize();
+    lost.close();
+    Files.write(Paths.get(journal), records);
+    final ExternalMemory replayed = new ExternalMemory(PATH, ExternalMemory.Backend.FILE, ExternalStorage.Durability.JOURNALED);
+    for (int block = 0; block < writers; block++) {
+      replayed.setPointer(block);
+      assertEquals(lineToString(words("LAST" + block)), lineToString(replayed.read()));
+    }
+    replayed.close();
+  }
+
+  @Test
+  public void segments() {
+    final SegmentedExternalMemory mem = new SegmentedExternalMemory(PATH);
+    mem.initialize();
+    final int segment = 3 * SegmentedExternalMemory.SEGMENTS + 7;
+    final File file = mem.getFile(segment);
+    assertEquals("external_memory_test_3_7.txt", file.getName());
+
+    // Untouched segments read as zeroes without allocating a file
+    mem.setPointer(segment, 5);
+    assertEquals("00000 00000 00000 00000 00000 00000 00000 00000 00000 00000\n", lineToString(mem.read(segment)));
+    assertFalse(file.exists());
+
+    // The first write allocates the segment, other segments are unaffected
+    final Word[] words = new Word[10];
+    for (int i = 0; i < words.length; i++) {
+      words[i] = new Word("SEG0" + i);
+    }
+    mem.write(segment, words);
+    mem.flush();
+    assertTrue(file.exists());
+    assertEquals("SEG00 SEG01 SEG02 SEG03 SEG04 SEG05 SEG06 SEG07 SEG08 SEG09\n", lineToString(mem.read(segment)));
+    mem.setPointer(0, 5);
+    assertEquals("00000 00000 00000 00000 00000 00000 00000 00000 00000 00000\n", lineToString(mem.read(0)));
+
+    // Initialization releases allocated segments
+    mem.initialize();
+    assertFalse(file.exists());
+    mem.close();
+  }
+
+  @Test
+  public void concurrentSegments() throws Exception {
+    final SegmentedExternalMemory mem = new SegmentedExternalMemory(PATH, ExternalMemory.Backend.FILE,
+        ExternalStorage.Durability.NONE, ExternalMemoryFormat.TEXT, 0);
+    mem.initialize();
+
+    // Every thread uses its own namespace, together more segments than may stay open, so segments are closed while
+    // other threads use theirs
+    final int threads = 8;
+    final ExecutorService executor = Executors.newFixedThreadPool(threads);
+    final List<Future<?>> futures = new ArrayList<>();
+    for (int t = 0; t < threads; t++) {
+      final int namespace = t + 1;
+      futures.add(executor.submit(() -> {
+        for (int i = 0; i < 50; i++) {
+          final int segment = namespace * SegmentedExternalMemory.SEGMENTS + i % 4;
+          final Word[] words = new Word[10];
+          for (int j = 0; j < words.length; j++) {
+            words[j] = new Word(String.format("%d%02d%02d", namespace, i, j));
+          }
+          mem.setPointer(segment, i);
+          mem.write(segment, words);
+          assertEquals(lineToString(words), lineToString(mem.read(segment)));
+        }
+        return null;
+      }));
+    }
+    for (Future<?> future : futures) {
+      future.get();
+    }
+    executor.shutdown();
+
+    // Closed segments were written back
+    mem.flush();
+    mem.setPointer(SegmentedExternalMemory.SEGMENTS + 1, 49);
+    assertEquals("14900 14901 14902 14903 14904 14905 14906 14907 14908 14909\n",
+        lineToString(mem.read(SegmentedExternalMemory.SEGMENTS + 1)));
+    mem.initialize();
+    mem.close();
+  }
+
+  /**
+   * @return 10 copies of the given word
+   */
+  private static Word[] words(String word) {
+    final Word[] words = new Word[10];
+    for (int i = 0; i < words.length; i++) {
+      words[i] = new Word(word);
+    }
+    return words;
+  }
+
   private String lineToString(Word[] words) {
     String result = "";
     for (int j = 0; j < words.length; j++) {
@@ -0,0 +1,165 @@
+package test;
+
+import org.junit.Test;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import vrm.IoScheduler;
+import static org.junit.Assert.*;
+
+public class IoSchedulerTest {
+
+  /**
+   * Long enough to never expire during a test.
+   */
+  private static final long NO_DEADLINE = TimeUnit.HOURS.toNanos(1);
+
+  @Test
+  public void fifo() throws Exception {
+    try (IoScheduler scheduler = new IoScheduler(IoScheduler.Policy.FIFO)) {
+      assertEquals(Arrays.asList(50L, 10L, 30L), order(scheduler, 20, 50, 10, 30));
+    }
+  }
+
+  @Test
+  public void scan() throws Exception {
+    try (IoScheduler scheduler = new IoScheduler(IoScheduler.Policy.SCAN)) {
+      // Up from the head, then down
+      assertEquals(Arrays.asList(25L, 30L, 50L, 10L), order(scheduler, 20, 50, 10, 30, 25));
+    }
+  }
+
+  @Test
+  public void deadline() throws Exception {
+    // Same as SCAN while nothing expires
+    try (IoScheduler scheduler = new IoScheduler(IoScheduler.Policy.DEADLINE, NO_DEADLINE, NO_DEADLINE)) {
+      assertEquals(Arrays.asList(25L, 30L, 50L, 10L), order(scheduler, 20, 50, 10, 30, 25));
+    }
+
+    // Reads expire right away and are served first, writes are scanned afterwards
+    try (IoScheduler scheduler = new IoScheduler(IoScheduler.Policy.DEADLINE, 0, NO_DEADLINE)) {
+      final List<Long> served = Collections.synchronizedList(new ArrayList<>());
+      final CountDownLatch release = hold(scheduler, 20);
+      final List<Future<Void>> futures = new ArrayList<>();
+      futures.add(scheduler.submit(10, true, () -> served.add(10L)));
+      futures.add(scheduler.submit(30, true, () -> served.add(30L)));
+      futures.add(scheduler.submit(90, false, () -> served.add(90L)));
+      release.countDown();
+      for (Future<Void> future : futures) {
+        future.get();
+      }
+
+      assertEquals(Arrays.asList(90L, 30L, 10L), served);
+    }
+  }
+
+  @Test
+  public void times() throws Exception {
+    final IoScheduler scheduler = new IoScheduler(IoScheduler.Policy.FIFO);
+    final List<IoScheduler.Request> requests = Collections.synchronizedList(new ArrayList<>());
+    scheduler.setListener(requests::add);
+
+    // The first request is held while the others queue up
+    final CountDownLatch release = hold(scheduler, 20);
+    final long heldFrom = System.nanoTime();
+    final List<Future<Void>> futures = new ArrayList<>();
+    for (long address : new long[] { 50, 10, 30 }) {
+      futures.add(scheduler.submit(address, false, () -> {}));
+    }
+    Thread.sleep(1);
+    final long heldUntil = System.nanoTime();
+    release.countDown();
+    for (Future<Void> future : futures) {
+      future.get();
+    }
+    // Waits for the listener
+    scheduler.close();
+
+    assertEquals(4, scheduler.getServedRequests());
+    assertEquals(4, requests.size());
+    assertTrue(requests.get(0).getServiceNanos() >= heldUntil - heldFrom);
+
+    long queueNanos = 0, serviceNanos = 0, maxQueueNanos = 0;
+    for (IoScheduler.Request request : requests) {
+      assertTrue(request.getQueueNanos() >= 0);
+      queueNanos += request.getQueueNanos();
+      serviceNanos += request.getServiceNanos();
+      maxQueueNanos = Math.max(maxQueueNanos, request.getQueueNanos());
+    }
+    assertEquals(queueNanos, scheduler.getQueueNanos());
+    assertEquals(serviceNanos, scheduler.getServiceNanos());
+    assertEquals(maxQueueNanos, scheduler.getMaxQueueNanos());
+
+    // 0 -> 20 -> 50 -> 10 -> 30
+    assertEquals(20 + 30 + 40 + 20, scheduler.getSeekDistance());
+  }
+
+  @Test
+  public void devices() throws Exception {
+    try (IoScheduler scheduler = new IoScheduler(IoScheduler.Policy.SCAN)) {
+      // The same block of 2 devices doesn't collide, switching devices isn't a seek
+      final long first = IoScheduler.address(0, 5), second = IoScheduler.address(1, 5);
+      assertNotEquals(first, second);
+      assertEquals(Arrays.asList(first, second), order(scheduler, 0, second, first));
+      assertEquals(5, scheduler.getSeekDistance());
+    }
+  }
+
+  @Test
+  public void exception() throws Exception {
+    try (IoScheduler scheduler = new IoScheduler(IoScheduler.Policy.FIFO)) {
+      try {
+        scheduler.execute(0, false, () -> { throw new IllegalStateException("Failed"); });
+        fail();
+      } catch (IllegalStateException e) {
+        assertEquals("Failed", e.getMessage());
+      }
+
+      // Dispatcher keeps serving
+      scheduler.execute(0, false, () -> {});
+      assertEquals(2, scheduler.getServedRequests());
+    }
+  }
+
+  /**
+   * Holds the dispatcher in a request at the given address, so requests submitted in the meantime queue up.
+   * @return released to finish the held request
+   */
+  private static CountDownLatch hold(IoScheduler scheduler, long address) throws InterruptedException {
+    final CountDownLatch started = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    scheduler.submit(address, false, () -> {
+      started.countDown();
+      try {
+        release.await();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    });
+    started.await();
+    return release;
+  }
+
+  /**
+   * Queues reads of the given addresses behind a request at the head.
+   * @return addresses in the order they were served
+   */
+  private static List<Long> order(IoScheduler scheduler, long head, long... addresses) throws Exception {
+    final List<Long> served = Collections.synchronizedList(new ArrayList<>());
+    final CountDownLatch release = hold(scheduler, head);
+    final List<Future<Void>> futures = new ArrayList<>();
+    for (long address : addresses) {
+      futures.add(scheduler.submit(address, false, () -> served.add(address)));
+    }
+    release.countDown();
+    for (Future<Void> future : futures) {
+      future.get();
+    }
+    return served;
+  }
+
+}
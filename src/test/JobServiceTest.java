@@ -0,0 +1,164 @@
+package test;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import vrm.IoScheduler;
+import vrm.jobs.Job;
+import vrm.jobs.JobResult;
+import vrm.jobs.JobService;
+import static org.junit.Assert.*;
+
+public class JobServiceTest {
+
+  private static final File DIRECTORY = new File("job_service_test");
+
+  private JobService service;
+
+  @Before
+  public void createService() throws InterruptedException {
+    service = new JobService(2, 2, DIRECTORY);
+  }
+
+  @After
+  public void closeService() {
+    service.close();
+  }
+
+  @Test
+  public void echo() throws Exception {
+    // Read a word, print it, add 1 and print it again
+    final Job job = new Job(Arrays.asList("GD020", "PD020", "CR020", "AD021", "CM020", "PD020", "HALT", "", "", "", "",
+        "", "", "", "", "", "", "", "", "", "", "00001"), "7");
+
+    final JobResult result = service.submit(job).get();
+
+    assertEquals(JobResult.Status.HALTED, result.status);
+    assertEquals(Arrays.asList("00007", "00008"), result.output);
+    assertTrue(result.instructions >= 7);
+  }
+
+  @Test
+  public void instructionLimit() throws Exception {
+    // Endless loop
+    final Job job = new Job(Collections.singletonList("JP000"), Collections.emptyList(), 100);
+
+    final JobResult result = service.submit(job).get();
+
+    assertEquals(JobResult.Status.INSTRUCTION_LIMIT, result.status);
+    assertEquals(100, result.instructions);
+  }
+
+  @Test
+  public void backpressure() throws Exception {
+    // Long enough to still run while the queue is checked
+    final Job job = new Job(Collections.singletonList("JP000"), Collections.emptyList(), 300_000);
+
+    // 2 running and 2 queued jobs fill the service
+    final List<Future<JobResult>> results = new ArrayList<>();
+    for (int i = 0; i < 4; i++) {
+      results.add(service.submit(job));
+    }
+    assertNull(service.trySubmit(job));
+
+    // Blocks until a job finishes
+    final ExecutorService submitter = Executors.newSingleThreadExecutor();
+    final Future<Future<JobResult>> submitted = submitter.submit(() -> service.submit(job));
+    Thread.sleep(100);
+    assertFalse(submitted.isDone());
+    assertFalse(results.get(0).isDone());
+    results.add(submitted.get());
+    submitter.shutdown();
+
+    for (Future<JobResult> result : results) {
+      assertEquals(JobResult.Status.INSTRUCTION_LIMIT, result.get().status);
+    }
+    assertEquals(5, service.getSubmittedJobs());
+  }
+
+  @Test
+  public void reuseMachines() throws Exception {
+    // More jobs than RMs, each must start with a clean RM
+    final Job job = new Job(Arrays.asList("PD002", "HALT", "00042"));
+    for (int i = 0; i < 5; i++) {
+      final JobResult result = service.submit(job).get();
+      assertEquals(JobResult.Status.HALTED, result.status);
+      assertEquals(Collections.singletonList("00042"), result.output);
+    }
+    assertEquals(5, service.getCompletedJobs());
+  }
+
+  @Test
+  public void blockTransfer() throws Exception {
+    // Write VM blocks 2 and 3 to external blocks 5 and 6 and read them back into VM blocks 4 and 5
+    final String[] program = new String[31];
+    Arrays.fill(program, "");
+    program[0] = "SD005";
+    program[1] = "WB022";
+    program[2] = "RB042";
+    program[3] = "PD040";
+    program[4] = "PD050";
+    program[5] = "HALT";
+    program[20] = "00011";
+    program[30] = "00022";
+
+    final JobResult result = service.submit(new Job(Arrays.asList(program))).get();
+
+    assertEquals(JobResult.Status.HALTED, result.status);
+    assertEquals(Arrays.asList("00011", "00022"), result.output);
+  }
+
+  @Test
+  public void ioScheduler() throws Exception {
+    // Same transfers as blockTransfer, served by a shared scheduler
+    final String[] program = new String[31];
+    Arrays.fill(program, "");
+    program[0] = "SD005";
+    program[1] = "WB022";
+    program[2] = "RB042";
+    program[3] = "PD040";
+    program[4] = "PD050";
+    program[5] = "HALT";
+    program[20] = "00011";
+    program[30] = "00022";
+
+    try (JobService scheduled = new JobService(2, 2, new File(DIRECTORY, "scheduled"), IoScheduler.Policy.SCAN)) {
+      final JobResult result = scheduled.submit(new Job(Arrays.asList(program))).get();
+
+      assertEquals(JobResult.Status.HALTED, result.status);
+      assertEquals(Arrays.asList("00011", "00022"), result.output);
+      assertEquals(2, scheduled.getIoScheduler().getServedRequests());
+    }
+  }
+
+  @Test
+  public void segments() throws Exception {
+    // Write a block to segment 7, then read the same block of segments 0 and 7
+    final String[] program = new String[41];
+    Arrays.fill(program, "");
+    program[0] = "SS007";
+    program[1] = "WD020";
+    program[2] = "SS000";
+    program[3] = "RD030";
+    program[4] = "SS007";
+    program[5] = "RD040";
+    program[6] = "PD030";
+    program[7] = "PD040";
+    program[8] = "HALT";
+    program[20] = "00011";
+
+    final JobResult result = service.submit(new Job(Arrays.asList(program))).get();
+
+    assertEquals(JobResult.Status.HALTED, result.status);
+    assertEquals(Arrays.asList("00000", "00011"), result.output);
+  }
+
+}
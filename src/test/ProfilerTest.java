@@ -0,0 +1,77 @@
+package test;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import java.io.StringWriter;
+import java.util.List;
+import vrm.Profiler;
+import vrm.VRM;
+import static org.junit.Assert.*;
+
+public class ProfilerTest {
+
+  private VRM vrm;
+  private Profiler profiler;
+
+  @Before
+  public void createMachine() throws Exception {
+    vrm = new VRM(null, "profiler_test.txt");
+    vrm.realMachine.stepping = false;
+    vrm.reset();
+    profiler = new Profiler(1);
+    vrm.setProfiler(profiler);
+  }
+
+  @After
+  public void closeMachine() {
+    vrm.realMachine.close();
+  }
+
+  @Test
+  public void hotSpots() throws Exception {
+    // Endless loop interrupted by the timer every 10 VM instructions
+    vrm.load("CR010", "JP000", "", "", "", "", "", "", "", "", "00001");
+    vrm.run(100);
+
+    final List<Profiler.Entry> addresses = profiler.getHotAddresses(2);
+    assertEquals(2, addresses.size());
+    assertEquals("VM0", addresses.get(0).machine);
+    assertEquals(0, addresses.get(0).start);
+    assertEquals("CR010", addresses.get(0).code);
+    assertEquals(1, addresses.get(1).start);
+    assertEquals("JP000", addresses.get(1).code);
+    assertEquals(addresses.get(0).samples, addresses.get(1).samples);
+
+    final Profiler.Entry block = profiler.getHotBlocks(1).get(0);
+    assertEquals("VM0", block.machine);
+    assertEquals(0, block.start);
+    assertEquals(1, block.end);
+    assertEquals("CR010; JP000", block.code);
+    assertEquals(addresses.get(0).samples * 2, block.samples);
+
+    // Timer interrupt handler is sampled as well
+    assertTrue(profiler.getHotAddresses(10).stream()
+        .anyMatch(entry -> entry.machine.startsWith("RM") && entry.start == 600 && entry.code.equals("PD602")));
+
+    final StringWriter writer = new StringWriter();
+    profiler.writeCollapsed(writer);
+    assertTrue(writer.toString().contains(String.format("VM0;000-001;000 CR010 %d%n", addresses.get(0).samples)));
+  }
+
+  @Test
+  public void interval() throws Exception {
+    profiler = new Profiler(7);
+    vrm.setProfiler(profiler);
+    vrm.load("CR010", "JP000", "", "", "", "", "", "", "", "", "00001");
+    vrm.run(71);
+
+    assertTrue(profiler.getSamples() > 0);
+    assertEquals(profiler.getSamples() * 7, profiler.getInstructions());
+
+    profiler.clear();
+    assertEquals(0, profiler.getSamples());
+    assertTrue(profiler.getHotAddresses(10).isEmpty());
+  }
+
+}
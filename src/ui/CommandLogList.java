@@ -0,0 +1,77 @@
+package ui;
+
+import java.util.Collections;
+import javafx.collections.ObservableListBase;
+import vrm.CommandLog;
+
+/**
+ * Read-only view of a {@link CommandLog} for a {@link javafx.scene.control.ListView}. Nothing is copied: items are read
+ * from the log when cells are rendered. The view changes only when {@link #sync()} is called, which publishes entries
+ * added and dropped since the previous sync.
+ */
+class CommandLogList extends ObservableListBase<String> {
+
+  private final CommandLog log;
+  /**
+   * Log position of the first item.
+   */
+  private long first;
+  private int size;
+
+  CommandLogList(CommandLog log) {
+    this.log = log;
+  }
+
+  /**
+   * Catches up with the log. Must be called on the FX thread.
+   */
+  void sync() {
+    final long newFirst, newTotal;
+    synchronized (log) {
+      newFirst = log.getFirst();
+      newTotal = log.getTotal();
+    }
+    final int newSize = (int) (newTotal - newFirst);
+
+    beginChange();
+    if (newTotal < first + size) {
+      // Log was cleared
+      if (size > 0) {
+        nextRemove(0, Collections.nCopies(size, ""));
+      }
+      if (newSize > 0) {
+        nextAdd(0, newSize);
+      }
+    } else {
+      // Dropped entries are no longer available, so removed items are reported as blanks
+      final int dropped = (int) Math.min(size, newFirst - first);
+      if (dropped > 0) {
+        nextRemove(0, Collections.nCopies(dropped, ""));
+      }
+      final int retained = size - dropped;
+      if (newSize > retained) {
+        nextAdd(retained, newSize);
+      }
+    }
+    first = newFirst;
+    size = newSize;
+    endChange();
+  }
+
+  @Override
+  public String get(int index) {
+    if (index < 0 || index >= size) {
+      throw new IndexOutOfBoundsException("Command log index: " + index);
+    }
+
+    // Entry may have been dropped since the last sync
+    final String entry = log.get(first + index);
+    return (entry == null) ? "" : entry;
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+}
@@ -0,0 +1,80 @@
+package ui;
+
+import java.util.BitSet;
+import vrm.RealMachine;
+import vrm.VRM;
+import vrm.VirtualMachine;
+import vrm.Word;
+import vrm.annotations.Nullable;
+
+/**
+ * Immutable copy of the registers and I/O the UI displays. Requested by an animation pulse and taken by the machine
+ * thread at the next instruction boundary, so at most one is built per pulse. Memory isn't copied: modified blocks are read from memory when they're rendered.
+ */
+final class MachineSnapshot {
+
+  final String rmTMP, rmPTR, rmIC, rmC, rmTI, rmPI, rmSI, rmIOI, rmMODE, rmBUSY;
+  /**
+   * VM registers or null when no VM has executed yet.
+   */
+  @Nullable
+  final String vmTMP, vmIC, vmC;
+  @Nullable
+  final String keyboard, screen;
+  /**
+   * Amount of instructions executed by the RM.
+   */
+  final long instructions;
+  /**
+   * Index of the VM that owns each RM memory block or -1. Shared between snapshots while the page tables don't change.
+   */
+  final int[] blockOwners;
+  /**
+   * Blocks modified since the previous snapshot. Their contents are read from memory when rendering.
+   */
+  final BitSet dirtyBlocks;
+
+  /**
+   * Must be called on the machine thread.
+   * @param dirtyBlocks RM memory blocks modified since the previous snapshot. Owned by the snapshot afterwards.
+   */
+  MachineSnapshot(VRM vrm, BitSet dirtyBlocks, int[] blockOwners) {
+    final RealMachine rm = vrm.realMachine;
+    rmTMP = rm.TMP.toString();
+    rmPTR = String.valueOf(rm.PTR);
+    rmIC = String.valueOf(rm.IC);
+    rmC = String.format("%d (%s)", rm.C.ordinal(), rm.C);
+    rmTI = String.valueOf(rm.TI);
+    rmPI = String.format("%d (%s)", rm.PI.ordinal(), rm.PI);
+    rmSI = String.format("%d (%s)", rm.SI.ordinal(), rm.SI);
+    rmIOI = String.valueOf(rm.IOI);
+    rmMODE = rm.MODE.name();
+    rmBUSY = String.valueOf(rm.BUSY);
+    instructions = rm.instructions;
+
+    final VirtualMachine vm = vrm.virtualMachine;
+    if (vm == null) {
+      vmTMP = vmIC = vmC = null;
+    } else {
+      vmTMP = vm.TMP.toString();
+      vmIC = String.valueOf(vm.IC);
+      vmC = String.format("%d (%s)", vm.C.ordinal(), vm.C);
+    }
+
+    final Word keyboardWord = rm.keyboard.word;
+    keyboard = (keyboardWord == null) ? null : keyboardWord.toString();
+    final Word screenWord = rm.screen.word;
+    screen = (screenWord == null) ? null : screenWord.toString();
+
+    this.blockOwners = blockOwners;
+    this.dirtyBlocks = dirtyBlocks;
+  }
+
+  /**
+   * Carries over blocks of an older snapshot that was never rendered. Must be called before this snapshot is published.
+   */
+  void inherit(MachineSnapshot older) {
+    dirtyBlocks.or(older.dirtyBlocks);
+  }
+
+}
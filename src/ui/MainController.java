@@ -1,17 +1,26 @@
 package ui;
 
 import java.net.URL;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Objects;
 import java.util.ResourceBundle;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import javafx.animation.AnimationTimer;
 import javafx.application.Platform;
+import javafx.beans.InvalidationListener;
 import javafx.beans.property.ReadOnlyObjectWrapper;
 import javafx.collections.FXCollections;
-import javafx.collections.ListChangeListener;
 import javafx.collections.ObservableList;
 import javafx.event.Event;
 import javafx.fxml.FXML;
 import javafx.fxml.Initializable;
+import javafx.scene.control.Button;
+import javafx.scene.control.ChoiceBox;
 import javafx.scene.control.Label;
 import javafx.scene.control.ListView;
 import javafx.scene.control.SelectionMode;
@@ -19,20 +28,34 @@ import javafx.scene.control.TableCell;
 import javafx.scene.control.TableColumn;
 import javafx.scene.control.TableView;
 import javafx.scene.control.TextField;
+import javafx.scene.control.ToggleButton;
 import javafx.scene.input.KeyEvent;
 import javafx.scene.input.MouseEvent;
 import javafx.util.Callback;
-import vrm.MemoryBlock;
-import vrm.PageTable;
+import javafx.util.StringConverter;
+import vrm.RealMachine;
 import vrm.Utils;
 import vrm.VRM;
 import vrm.Word;
 
-public class MainController implements Initializable {
+public class MainController implements Initializable, VRM.Listener {
+
+  /**
+   * Selectable run rates in instructions per second. {@link #UNTHROTTLED} runs as fast as possible.
+   */
+  private static final Integer[] RATES = { 1, 2, 5, 10, 50, 100, 500, 1000, 0 };
+  private static final int UNTHROTTLED = 0;
+  private static final String UNTHROTTLED_LABEL = "Unthrottled";
+  /**
+   * How often the measured rate is recalculated.
+   */
+  private static final long RATE_SAMPLE_NANOS = TimeUnit.MILLISECONDS.toNanos(500);
 
   @FXML
   private ListView<String> commandLog;
   @FXML
+  private ToggleButton followLog;
+  @FXML
   private TableView<MemoryBlock> memoryTable;
   @FXML
   private MachineRegister rmTMP, rmPTR, rmIC, rmC, rmTI, rmPI, rmSI, rmIOI, rmMODE, rmBUSY;
@@ -40,9 +63,82 @@ public class MainController implements Initializable {
   private MachineRegister vmTMP, vmIC, vmC;
   @FXML
   private TextField input, output;
+  @FXML
+  private Button runButton, pauseButton;
+  @FXML
+  private ChoiceBox<Integer> rate;
+  @FXML
+  private Label mips;
 
   private final VRM vrm;
   private int vmIndex = -1;
+  private CommandLogList commandLogItems;
+  /**
+   * Blocks modified since the last snapshot. Set and consumed by the machine thread.
+   */
+  private final BitSet dirtyBlocks = new BitSet();
+  /**
+   * Page table address the last snapshot's block owners were computed for. -1 when no VM was running.
+   * Machine thread only.
+   */
+  private int capturedPageTable = -1;
+  /**
+   * Block owners of the last snapshot. Machine thread only.
+   */
+  private int[] capturedOwners = new int[0];
+  /**
+   * Latest snapshot that wasn't rendered yet. Replaced by the machine thread, taken by the FX thread.
+   */
+  private final AtomicReference<MachineSnapshot> pendingSnapshot = new AtomicReference<>();
+  /**
+   * Set by the machine thread at every instruction boundary since the last snapshot request.
+   */
+  private volatile boolean changed;
+  /**
+   * Set by an animation pulse, cleared by the machine thread once it captured the requested snapshot.
+   */
+  private volatile boolean snapshotRequested;
+  /**
+   * Renders at most one snapshot per animation pulse and requests the next one if the machine moved on.
+   */
+  private final AnimationTimer renderer = new AnimationTimer() {
+    @Override
+    public void handle(long now) {
+      render();
+      updateRate(now);
+      if (changed) {
+        changed = false;
+        snapshotRequested = true;
+      }
+    }
+  };
+  /**
+   * Drives {@link VRM#forward()} while running at a limited rate.
+   */
+  private final ScheduledExecutorService runner = Executors.newSingleThreadScheduledExecutor(runnable -> {
+    final Thread thread = new Thread(runnable, "VRM-runner");
+    thread.setDaemon(true);
+    return thread;
+  });
+  /**
+   * Periodic forwarding task or null when paused or running unthrottled.
+   */
+  private ScheduledFuture<?> running;
+  /**
+   * Instruction count of the last rendered snapshot.
+   */
+  private long renderedInstructions;
+  private long sampledInstructions, sampledNanos;
+  private MemoryBlockList memoryBlocks;
+  /**
+   * Index of the VM that owns each RM memory block or -1. Only the current VM's blocks are tracked.
+   * Recomputed when the current page table or page tables change, so cells don't have to.
+   */
+  private int[] blockOwners = new int[0];
+  /**
+   * Keyboard word of the last rendered snapshot. The input field is only overwritten when the machine changes it.
+   */
+  private String drawnKeyboard;
 
   /**
    * Required c-tor
@@ -59,50 +155,53 @@ public class MainController implements Initializable {
     // Memory TableView
     initializeMemoryTable();
 
-    // Machine registers (just update with VRM data)
-    updateRegisters();
-
     // Input field listener
     initializeIO();
 
+    // Run controls
+    initializeRunControls();
+
+    // Machine registers (just update with VRM data)
+    draw();
+
     // Begin execution
-    vrm.commandLog.addListener((ListChangeListener<String>) c -> draw());
+    vrm.commandLog.addListener(this::draw);
+    renderer.start();
 
     // Execute VRM on a different thread so we can interrupt the waits
-    new Thread(() -> {
-      try {
-        vrm.begin();
-      } catch (InterruptedException e) {
-        e.printStackTrace();
+    vrm.start();
+  }
+
+  private void initializeRunControls() {
+    rate.getItems().setAll(RATES);
+    rate.setConverter(new StringConverter<Integer>() {
+      @Override
+      public String toString(Integer rate) {
+        return (rate == UNTHROTTLED) ? UNTHROTTLED_LABEL : rate + " instr/s";
       }
-    }).start();
-
-//    // Imitate looping
-//    Runnable r = new Runnable() {
-//      @Override
-//      public void run() {
-//        vrm.forward();
-//        Utils.delay(this, 100);
-//      }
-//    };
-//
-//    Utils.delay(r, 100);
+
+      @Override
+      public Integer fromString(String string) {
+        // Inverse of toString: "Unthrottled" or "<rate> instr/s"
+        final String trimmed = string.trim();
+        if (trimmed.equalsIgnoreCase(UNTHROTTLED_LABEL)) return UNTHROTTLED;
+        final int end = trimmed.indexOf(' ');
+        return Integer.valueOf((end == -1) ? trimmed : trimmed.substring(0, end));
+      }
+    });
+    rate.setValue(10);
+
+    // Changing the rate while running applies it immediately
+    rate.valueProperty().addListener((observable, oldValue, newValue) -> {
+      if (pauseButton.isDisable()) return;
+      run();
+    });
   }
 
   private void initializeIO() {
     // Input
     input.textProperty().addListener((observable, oldValue, newValue) -> {
-      String value;
-      try {
-        // Try preceding number with zeroes
-        final int number = Integer.parseInt(newValue);
-        value = Utils.precedeZeroes(number, Word.LENGTH);
-      } catch (NumberFormatException ignored) {
-        // Otherwise precede with spaces
-        value = String.format("%5s", newValue);
-      }
-
-      vrm.realMachine.keyboard.word = new Word(value);
+      vrm.realMachine.keyboard.word = Utils.toWord(newValue);
     });
 
     // Output
@@ -117,7 +216,9 @@ public class MainController implements Initializable {
     commandLog.addEventFilter(MouseEvent.MOUSE_PRESSED, Event::consume);
     commandLog.addEventFilter(KeyEvent.ANY, Event::consume);
 
-    // Initially, the list contains 1 empty item to prevent drawing an empty (white) list
+    // Entries are read straight from the bounded log
+    commandLogItems = new CommandLogList(vrm.commandLog);
+    commandLog.setItems(commandLogItems);
   }
 
   private void initializeMemoryTable() {
@@ -144,35 +245,54 @@ public class MainController implements Initializable {
     for (int i = 0; i < 10; i++) {
       final int index = i;
       final TableColumn<MemoryBlock, String> column = new TableColumn<>(String.valueOf(i));
-      // Value: MemoryBlock#words[i] (String)
-      column.setCellValueFactory(param -> new ReadOnlyObjectWrapper<>(param.getValue().getWords().get(index).toString()));
-
+      // No cell value factory: cells read MemoryBlock#getWord(i) themselves, so nothing is allocated per update.
       // Cell style is based on the current VM index
       column.setCellFactory(new Callback<TableColumn<MemoryBlock, String>, TableCell<MemoryBlock, String>>() {
         @Override
         public TableCell<MemoryBlock, String> call(TableColumn<MemoryBlock, String> param) {
           return new TableCell<MemoryBlock, String>() {
+            /**
+             * Reused for every item this cell displays.
+             */
+            private final Label label = new Label();
+            /**
+             * Block of the row this cell displays or null when empty.
+             */
+            private MemoryBlock block;
+            /**
+             * Redraws the word when the displayed block is modified.
+             */
+            private final InvalidationListener revisionListener = observable -> label.setText(block.getWord(index));
+
+            {
+              setGraphic(label);
+            }
+
             @Override
             protected void updateItem(String item, boolean empty) {
               super.updateItem(item, empty);
-              setGraphic(new Label(item));
 
-              // Clear specific style
-              getStyleClass().removeAll("vm-cell");
-              if (vrm.realMachine.getVirtualMachineId() == -1) return;
+              // Observes only the block that's currently displayed
+              final MemoryBlock current = (empty || getIndex() < 0 || getIndex() >= memoryBlocks.size())
+                  ? null : memoryBlocks.get(getIndex());
+              if (current != block) {
+                if (block != null) {
+                  block.revisionProperty().removeListener(revisionListener);
+                }
+                block = current;
+                if (block != null) {
+                  block.revisionProperty().addListener(revisionListener);
+                }
+              }
+              label.setText((block == null) ? null : block.getWord(index));
 
               // Add vm-cell style class to all cells that are within the VM's memory
-              final PageTable pageTable = vrm.realMachine.getPageTable(vrm.realMachine.PTR);
-              for (Word word : pageTable.table) {
-                final int startInclusive = word.toNumber() / 10;
-                if (getIndex() >= startInclusive && getIndex() < startInclusive + 1) {
-                  getStyleClass().add("vm-cell");
-                }
+              final boolean owned = block != null && getIndex() < blockOwners.length && blockOwners[getIndex()] != -1;
+              if (!owned) {
+                getStyleClass().remove("vm-cell");
+              } else if (!getStyleClass().contains("vm-cell")) {
+                getStyleClass().add("vm-cell");
               }
-//              final int startInclusive = 7 + vrm.realMachine.getVirtualMachineId() * 10, endExclusive = startInclusive + 10;
-//              if (getIndex() >= startInclusive && getIndex() < endExclusive) {
-//                getStyleClass().add("vm-cell");
-//              }
             }
           };
         }
@@ -184,80 +304,179 @@ public class MainController implements Initializable {
     // Assign columns to table
     memoryTable.getColumns().setAll(columns);
 
-    // Wrap RM memory (1000 Words) with MemoryBlocks (10 Words each)
-    final ObservableList<MemoryBlock> blocks = FXCollections.observableArrayList();
-    for (int i = 0; i < vrm.realMachine.memory.size() / 10; i++) {
-      blocks.add(new MemoryBlock(i, vrm.realMachine.memory.get(i * 10, 10)));
-    }
-
-    memoryTable.getItems().setAll(blocks);
+    // View RM memory as MemoryBlocks (10 Words each)
+    memoryBlocks = new MemoryBlockList(vrm.realMachine.memory);
+    memoryTable.setItems(memoryBlocks);
+    blockOwners = new int[memoryBlocks.size()];
+    Arrays.fill(blockOwners, -1);
+    capturedOwners = blockOwners;
+
+    // Track modified blocks so only their rows are redrawn
+    vrm.realMachine.memory.addListener(block -> {
+      synchronized (dirtyBlocks) {
+        dirtyBlocks.set(block);
+      }
+    });
 
     // Delay a forced scroll so the scrollbar takes sufficient space in the TableView
-    Utils.delay(() -> memoryTable.scrollTo(0), 1);
+    Platform.runLater(() -> memoryTable.scrollTo(0));
   }
 
+  /**
+   * Called on the machine thread between instructions, never blocks. Modified blocks are tracked by the memory
+   * listener, so usually only {@link #changed} is set. A snapshot is captured when a pulse requested one, or when the
+   * machine may not reach another boundary soon: it waits for {@link VRM#forward()} after each step or has halted.
+   * Snapshots that weren't rendered yet are replaced.
+   */
+  @Override
   public void draw() {
-    final List<String> commands = new ArrayList<>(vrm.commandLog);
-    // Execute drawing on the UI thread
-    Platform.runLater(() -> {
-      // Re-draw log
-      updateLog(commands);
+    final RealMachine realMachine = vrm.realMachine;
+    if (!snapshotRequested && !realMachine.stepping && !realMachine.halted) {
+      changed = true;
+      return;
+    }
+    snapshotRequested = false;
+
+    final MachineSnapshot snapshot = capture();
+    MachineSnapshot pending;
+    do {
+      pending = pendingSnapshot.get();
+      if (pending != null) {
+        snapshot.inherit(pending);
+      }
+    } while (!pendingSnapshot.compareAndSet(pending, snapshot));
+  }
 
-      // Re-draw grid
-      updateMemory();
+  private MachineSnapshot capture() {
+    final BitSet dirty;
+    synchronized (dirtyBlocks) {
+      dirty = (BitSet) dirtyBlocks.clone();
+      dirtyBlocks.clear();
+    }
 
-      // Re-draw registers
-      updateRegisters();
+    // VM cell styles depend on the current page table, so ownership is only recomputed when it may have changed
+    final RealMachine realMachine = vrm.realMachine;
+    final int pageTable = (realMachine.getVirtualMachineId() == -1) ? -1 : realMachine.PTR;
+    final int pageTablesStart = RealMachine.INTERRUPT_TABLE_SIZE / 10;
+    final int pageTablesEnd = (RealMachine.INTERRUPT_TABLE_SIZE + RealMachine.VM_PAGE_TABLES_SIZE) / 10;
+    if (pageTable != capturedPageTable || !dirty.get(pageTablesStart, pageTablesEnd).isEmpty()) {
+      capturedPageTable = pageTable;
+      final int[] owners = computeOwners(pageTable);
+      if (!Arrays.equals(owners, capturedOwners)) {
+        capturedOwners = owners;
+      }
+    }
 
-      // Re-draw I/O fields
-      updateIO();
-    });
+    return new MachineSnapshot(vrm, dirty, capturedOwners);
+  }
+
+  /**
+   * Draws the latest snapshot if there's a new one. Called on the FX thread once per pulse.
+   */
+  private void render() {
+    final MachineSnapshot snapshot = pendingSnapshot.getAndSet(null);
+    if (snapshot == null) return;
+    renderedInstructions = snapshot.instructions;
+
+    // Re-draw log
+    updateLog();
+
+    // Re-draw grid
+    updateMemory(snapshot);
+
+    // Re-draw registers
+    updateRegisters(snapshot);
+
+    // Re-draw I/O fields
+    updateIO(snapshot);
+  }
+
+  private void updateLog() {
+    commandLogItems.sync();
+    if (followLog.isSelected()) {
+      commandLog.scrollTo(commandLogItems.size() - 1);
+    }
   }
 
-  private void updateLog(List<String> commands) {
-    commandLog.getItems().setAll(commands);
-    commandLog.scrollTo(commands.size());
+  /**
+   * Called when the follow button is toggled. Turning it on jumps to the latest command.
+   */
+  @FXML
+  public void jumpToLatest() {
+    if (followLog.isSelected()) {
+      commandLog.scrollTo(commandLogItems.size() - 1);
+    }
+  }
+
+  private void updateMemory(MachineSnapshot snapshot) {
+    // Ownership changes affect the style of many rows
+    if (snapshot.blockOwners != blockOwners) {
+      blockOwners = snapshot.blockOwners;
+      memoryTable.refresh();
+      return;
+    }
+
+    // Otherwise only the values of modified blocks are recomputed
+    final BitSet dirty = snapshot.dirtyBlocks;
+    for (int block = dirty.nextSetBit(0); block >= 0; block = dirty.nextSetBit(block + 1)) {
+      memoryBlocks.invalidate(block);
+    }
   }
 
-  private void updateMemory() {
-    memoryTable.refresh();
+  /**
+   * Computes the owner of every block based on the given page table. Must be called on the machine thread.
+   * @param pageTable page table address or -1 when no VM is running
+   */
+  private int[] computeOwners(int pageTable) {
+    final int[] owners = new int[capturedOwners.length];
+    Arrays.fill(owners, -1);
+
+    if (pageTable != -1) {
+      final int vm = vrm.realMachine.getVirtualMachineId();
+      for (Word word : vrm.realMachine.getPageTable(pageTable).table) {
+        owners[word.toNumber() / 10] = vm;
+      }
+    }
+
+    return owners;
   }
 
-  private void updateRegisters() {
+  private void updateRegisters(MachineSnapshot snapshot) {
     // RM registers
-    rmTMP.setField(vrm.realMachine.TMP.toString());
-    rmPTR.setField(String.valueOf(vrm.realMachine.PTR));
-    rmIC.setField(String.valueOf(vrm.realMachine.IC));
-    rmC.setField(String.format("%d (%s)", vrm.realMachine.C.ordinal(), vrm.realMachine.C));
-    rmTI.setField(String.valueOf(vrm.realMachine.TI));
-    rmPI.setField(String.format("%d (%s)", vrm.realMachine.PI.ordinal(), vrm.realMachine.PI));
-    rmSI.setField(String.format("%d (%s)", vrm.realMachine.SI.ordinal(), vrm.realMachine.SI));
-    rmIOI.setField(String.valueOf(vrm.realMachine.IOI));
-    rmMODE.setField(vrm.realMachine.MODE.name());
-    rmBUSY.setField(String.valueOf(vrm.realMachine.BUSY));
+    rmTMP.setField(snapshot.rmTMP);
+    rmPTR.setField(snapshot.rmPTR);
+    rmIC.setField(snapshot.rmIC);
+    rmC.setField(snapshot.rmC);
+    rmTI.setField(snapshot.rmTI);
+    rmPI.setField(snapshot.rmPI);
+    rmSI.setField(snapshot.rmSI);
+    rmIOI.setField(snapshot.rmIOI);
+    rmMODE.setField(snapshot.rmMODE);
+    rmBUSY.setField(snapshot.rmBUSY);
 
     // VM registers
-    if (vrm.virtualMachine == null) return;
-    vmTMP.setField(vrm.virtualMachine.TMP.toString());
-    vmIC.setField(String.valueOf(vrm.virtualMachine.IC));
-    vmC.setField(String.format("%d (%s)", vrm.virtualMachine.C.ordinal(), vrm.virtualMachine.C));
+    if (snapshot.vmTMP == null) return;
+    vmTMP.setField(snapshot.vmTMP);
+    vmIC.setField(snapshot.vmIC);
+    vmC.setField(snapshot.vmC);
   }
 
-  private void updateIO() {
-    // Input
-    Word word = vrm.realMachine.keyboard.word;
-    if (word == null) {
-      input.clear();
-    } else {
-      input.setText(word.toString());
+  private void updateIO(MachineSnapshot snapshot) {
+    // Input. Left alone unless the machine changed it, so a stale snapshot can't revert what the user typed.
+    if (!Objects.equals(snapshot.keyboard, drawnKeyboard)) {
+      drawnKeyboard = snapshot.keyboard;
+      if (drawnKeyboard == null) {
+        input.clear();
+      } else {
+        input.setText(drawnKeyboard);
+      }
     }
 
     // Output
-    word = vrm.realMachine.screen.word;
-    if (word == null) {
+    if (snapshot.screen == null) {
       output.clear();
     } else {
-      output.setText(word.toString());
+      output.setText(snapshot.screen);
     }
 
     // Remove focus from both fields
@@ -266,10 +485,68 @@ public class MainController implements Initializable {
   }
 
   /**
-   * Called when next command button is pressed
+   * Displays the execution rate measured over the last {@link #RATE_SAMPLE_NANOS}.
+   */
+  private void updateRate(long now) {
+    final long elapsed = now - sampledNanos;
+    if (elapsed < RATE_SAMPLE_NANOS) return;
+
+    final double perSecond = (renderedInstructions - sampledInstructions) * 1e9 / elapsed;
+    mips.setText(String.format("%.0f instr/s (%.3f MIPS)", perSecond, perSecond / 1e6));
+    sampledInstructions = renderedInstructions;
+    sampledNanos = now;
+  }
+
+  /**
+   * Called when the run button is pressed or the rate changes while running.
+   */
+  @FXML
+  public void run() {
+    stopRunner();
+
+    final int instructionsPerSecond = rate.getValue();
+    if (instructionsPerSecond == UNTHROTTLED) {
+      // The machine no longer waits between steps, release the current wait
+      vrm.realMachine.stepping = false;
+      vrm.forward();
+    } else {
+      vrm.realMachine.stepping = true;
+      final long period = TimeUnit.SECONDS.toNanos(1) / instructionsPerSecond;
+      running = runner.scheduleAtFixedRate(vrm::forward, 0, period, TimeUnit.NANOSECONDS);
+    }
+
+    runButton.setDisable(true);
+    pauseButton.setDisable(false);
+  }
+
+  /**
+   * Called when the pause button is pressed. The machine stops at its next step.
+   */
+  @FXML
+  public void pause() {
+    stopRunner();
+    vrm.realMachine.stepping = true;
+
+    runButton.setDisable(false);
+    pauseButton.setDisable(true);
+  }
+
+  private void stopRunner() {
+    if (running != null) {
+      running.cancel(false);
+      running = null;
+    }
+  }
+
+  /**
+   * Called when next command button is pressed. Pauses a running machine first.
    */
   @FXML
   public void nextCommand() {
+    if (!pauseButton.isDisable()) {
+      pause();
+      return;
+    }
     vrm.forward();
   }
 
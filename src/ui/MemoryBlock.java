@@ -0,0 +1,57 @@
+package ui;
+
+import javafx.beans.property.IntegerProperty;
+import javafx.beans.property.SimpleIntegerProperty;
+import vrm.Memory;
+import vrm.Word;
+
+/**
+ * Row of the memory table: a view of {@link #SIZE} {@link Word}s of a {@link Memory}. Nothing is copied, words are
+ * read from the memory when rendering.
+ */
+public class MemoryBlock {
+
+  /**
+   * Amount of words in a block.
+   */
+  public static final int SIZE = 10;
+
+  private final Memory memory;
+  /**
+   * Memory block index.
+   */
+  private final int index;
+  /**
+   * Incremented whenever words of this block are modified. Memory table cells that observe it redraw their word.
+   */
+  private final IntegerProperty revision = new SimpleIntegerProperty();
+
+  public MemoryBlock(Memory memory, int index) {
+    this.memory = memory;
+    this.index = index;
+  }
+
+  public int getIndex() {
+    return index;
+  }
+
+  /**
+   * @param offset word position within this block ([0..{@link #SIZE}))
+   * @return current value of the word
+   */
+  public String getWord(int offset) {
+    return memory.get(index * SIZE + offset).toString();
+  }
+
+  public IntegerProperty revisionProperty() {
+    return revision;
+  }
+
+  /**
+   * Marks words of this block as modified. Must be called on the FX thread.
+   */
+  public void invalidate() {
+    revision.set(revision.get() + 1);
+  }
+
+}
@@ -0,0 +1,47 @@
+package ui;
+
+import javafx.collections.ObservableListBase;
+import vrm.Memory;
+
+/**
+ * Fixed size list of every {@link MemoryBlock} of a {@link Memory}. Blocks are created when first requested, i.e. when
+ * their rows are rendered, so building a table is instant regardless of the memory size.
+ */
+class MemoryBlockList extends ObservableListBase<MemoryBlock> {
+
+  private final Memory memory;
+  /**
+   * Created blocks. Null for blocks that were never requested.
+   */
+  private final MemoryBlock[] blocks;
+
+  MemoryBlockList(Memory memory) {
+    this.memory = memory;
+    blocks = new MemoryBlock[memory.size() / MemoryBlock.SIZE];
+  }
+
+  @Override
+  public MemoryBlock get(int index) {
+    MemoryBlock block = blocks[index];
+    if (block == null) {
+      block = blocks[index] = new MemoryBlock(memory, index);
+    }
+    return block;
+  }
+
+  @Override
+  public int size() {
+    return blocks.length;
+  }
+
+  /**
+   * Redraws the given block if it was ever rendered. Must be called on the FX thread.
+   */
+  void invalidate(int index) {
+    final MemoryBlock block = blocks[index];
+    if (block != null) {
+      block.invalidate();
+    }
+  }
+
+}
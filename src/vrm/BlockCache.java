@@ -0,0 +1,141 @@
+package vrm;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import vrm.annotations.NotNull;
+import vrm.annotations.Nullable;
+
+/**
+ * Least recently used cache of encoded external memory blocks.
+ * Modified (dirty) blocks are handed to a {@link WriteBack} when they're evicted or {@link #writeBack() flushed}.
+ * Thread safe. The {@link WriteBack} is invoked while the cache is locked.
+ */
+class BlockCache {
+
+  /**
+   * Receives dirty blocks that leave the cache.
+   */
+  interface WriteBack {
+    void write(int block, @NotNull byte[] bytes);
+  }
+
+  private static class Entry {
+    byte[] bytes;
+    boolean dirty;
+
+    Entry(byte[] bytes, boolean dirty) {
+      this.bytes = bytes;
+      this.dirty = dirty;
+    }
+  }
+
+  private final int capacity;
+  private final WriteBack writeBack;
+  /**
+   * Access ordered, so the eldest entry is the least recently used one.
+   */
+  private final LinkedHashMap<Integer, Entry> entries;
+
+  private long hits;
+  private long misses;
+  private long evictions;
+
+  /**
+   * @param capacity  max amount of cached blocks
+   * @param writeBack receiver of evicted dirty blocks
+   */
+  BlockCache(int capacity, @NotNull WriteBack writeBack) {
+    if (capacity <= 0) {
+      throw new IllegalArgumentException("Invalid cache capacity: " + capacity);
+    }
+
+    this.capacity = capacity;
+    this.writeBack = writeBack;
+    entries = new LinkedHashMap<Integer, Entry>(capacity * 4 / 3 + 1, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<Integer, BlockCache.Entry> eldest) {
+        if (size() <= BlockCache.this.capacity) return false;
+
+        evictions++;
+        if (eldest.getValue().dirty) {
+          BlockCache.this.writeBack.write(eldest.getKey(), eldest.getValue().bytes);
+        }
+        return true;
+      }
+    };
+  }
+
+  /**
+   * @return cached block bytes or null if the block isn't cached
+   */
+  @Nullable
+  synchronized byte[] get(int block) {
+    final Entry entry = entries.get(block);
+    if (entry == null) {
+      misses++;
+      return null;
+    }
+
+    hits++;
+    return entry.bytes;
+  }
+
+  /**
+   * Unlike {@link #get(int)} this neither counts as an access nor affects the eviction order.
+   * @return true if the block is cached
+   */
+  synchronized boolean contains(int block) {
+    return entries.containsKey(block);
+  }
+
+  /**
+   * Caches a block.
+   * @param dirty true if the block was modified and has to be written back eventually
+   */
+  synchronized void put(int block, @NotNull byte[] bytes, boolean dirty) {
+    final Entry entry = entries.get(block);
+    if (entry == null) {
+      entries.put(block, new Entry(bytes, dirty));
+      return;
+    }
+
+    entry.bytes = bytes;
+    // A clean copy mustn't hide an earlier modification
+    entry.dirty |= dirty;
+  }
+
+  /**
+   * Hands all dirty blocks to the {@link WriteBack}. They stay cached but become clean.
+   */
+  synchronized void writeBack() {
+    final Iterator<Map.Entry<Integer, Entry>> iterator = entries.entrySet().iterator();
+    while (iterator.hasNext()) {
+      final Map.Entry<Integer, Entry> entry = iterator.next();
+      if (!entry.getValue().dirty) continue;
+
+      writeBack.write(entry.getKey(), entry.getValue().bytes);
+      entry.getValue().dirty = false;
+    }
+  }
+
+  /**
+   * Drops all blocks, including dirty ones.
+   */
+  synchronized void clear() {
+    entries.clear();
+  }
+
+  synchronized long getHits() {
+    return hits;
+  }
+
+  synchronized long getMisses() {
+    return misses;
+  }
+
+  synchronized long getEvictions() {
+    return evictions;
+  }
+
+}
@@ -1,7 +1,7 @@
 package vrm;
 
-import com.sun.istack.internal.NotNull;
-import com.sun.istack.internal.Nullable;
+import vrm.annotations.NotNull;
+import vrm.annotations.Nullable;
 import vrm.exceptions.InvalidArgumentsException;
 import vrm.exceptions.InvalidCommandException;
 
@@ -11,7 +11,7 @@ import vrm.exceptions.InvalidCommandException;
 public class Command {
 
   public enum Type {
-    CR(3), CM(3), AD(3), SB(3), ML(3), MD(3), DV(3), CP(3), JP(3), JE(3), JL(3), JM(3), HALT(0), GD(3), PD(3), RD(3), WD(3), SD(3), STVM(1), SVRG(1), LDRG(1);
+    CR(3), CM(3), AD(3), SB(3), ML(3), MD(3), DV(3), CP(3), JP(3), JE(3), JL(3), JM(3), HALT(0), GD(3), PD(3), RD(3), WD(3), SD(3), RB(3), WB(3), SS(3), STVM(1), SVRG(1), LDRG(1);
 
     public final int argCount;
 
@@ -0,0 +1,171 @@
+package vrm;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import vrm.annotations.NotNull;
+import vrm.annotations.Nullable;
+
+/**
+ * Log of executed commands. Keeps the latest {@link #getCapacity()} entries in a ring buffer, older ones are dropped.
+ * Entries are addressed by their position, i.e. the amount of entries added before them, so positions stay valid while
+ * the buffer wraps around.
+ * <br>
+ * Optionally every entry is also appended to a spill file that keeps the full history.
+ * <br>
+ * Thread safe.
+ */
+public class CommandLog {
+
+  public static final int DEFAULT_CAPACITY = 1000;
+
+  private final String[] entries;
+  /**
+   * Amount of entries added since creation or the last {@link #clear()}.
+   */
+  private long total;
+  @Nullable
+  private Writer spill;
+  private final List<Runnable> listeners = new CopyOnWriteArrayList<>();
+
+  public CommandLog() {
+    this(DEFAULT_CAPACITY);
+  }
+
+  /**
+   * @param capacity amount of retained entries
+   */
+  public CommandLog(int capacity) {
+    if (capacity <= 0) {
+      throw new IllegalArgumentException("Invalid command log capacity: " + capacity);
+    }
+
+    entries = new String[capacity];
+  }
+
+  public int getCapacity() {
+    return entries.length;
+  }
+
+  /**
+   * Appends an entry, dropping the oldest one when the log is full.
+   */
+  public void add(@NotNull String entry) {
+    synchronized (this) {
+      entries[(int) (total % entries.length)] = entry;
+      total++;
+
+      if (spill != null) {
+        try {
+          spill.write(entry);
+          spill.write('\n');
+        } catch (IOException e) {
+          e.printStackTrace();
+          throw new RuntimeException(e);
+        }
+      }
+    }
+
+    notifyListeners();
+  }
+
+  /**
+   * @return amount of retained entries
+   */
+  public synchronized int size() {
+    return (int) Math.min(total, entries.length);
+  }
+
+  /**
+   * @return position after the latest entry, i.e. amount of entries ever added
+   */
+  public synchronized long getTotal() {
+    return total;
+  }
+
+  /**
+   * @return position of the oldest retained entry
+   */
+  public synchronized long getFirst() {
+    return total - size();
+  }
+
+  /**
+   * @param position entry position
+   * @return entry or null if it was dropped or doesn't exist yet
+   */
+  @Nullable
+  public synchronized String get(long position) {
+    if (position < getFirst() || position >= total) return null;
+    return entries[(int) (position % entries.length)];
+  }
+
+  /**
+   * @return entries that are still retained, oldest first
+   */
+  public synchronized String[] toArray() {
+    final String[] array = new String[size()];
+    for (int i = 0; i < array.length; i++) {
+      array[i] = get(getFirst() + i);
+    }
+    return array;
+  }
+
+  /**
+   * Drops all entries. The spill file, if any, is kept as is.
+   */
+  public void clear() {
+    synchronized (this) {
+      Arrays.fill(entries, null);
+      total = 0;
+    }
+
+    notifyListeners();
+  }
+
+  /**
+   * Starts appending every added entry to the given file, one per line. The file is truncated first.
+   * @param file spill file or null to stop spilling
+   */
+  public synchronized void setSpillFile(@Nullable File file) throws IOException {
+    if (spill != null) {
+      spill.close();
+      spill = null;
+    }
+    if (file != null) {
+      spill = new BufferedWriter(new FileWriter(file));
+    }
+  }
+
+  /**
+   * Writes buffered spilled entries to the spill file.
+   */
+  public synchronized void flush() throws IOException {
+    if (spill != null) {
+      spill.flush();
+    }
+  }
+
+  /**
+   * @param listener called on the modifying thread after an entry is added or the log is cleared
+   */
+  public void addListener(@NotNull Runnable listener) {
+    listeners.add(listener);
+  }
+
+  public void removeListener(@NotNull Runnable listener) {
+    listeners.remove(listener);
+  }
+
+  private void notifyListeners() {
+    for (Runnable listener : listeners) {
+      listener.run();
+    }
+  }
+
+}
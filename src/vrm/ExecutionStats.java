@@ -0,0 +1,295 @@
+package vrm;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import vrm.annotations.NotNull;
+import vrm.annotations.Nullable;
+
+/**
+ * Execution counters of a single {@link RealMachine} and its VMs: instructions and sampled latencies per
+ * {@link Command.Type}, interrupts by kind and channel waits. Published through JMX (see {@link ExecutionStatsMXBean}).
+ * <br>
+ * Collection is disabled by default (enable with {@code -Dvrm.stats=true} or through JMX). While disabled every hook
+ * costs a single volatile read. Counters are striped ({@link LongAdder}), so the hot path takes no locks.
+ */
+public class ExecutionStats implements ExecutionStatsMXBean {
+
+  /**
+   * Every n-th instruction is timed. Power of two.
+   */
+  public static final int SAMPLE_INTERVAL = 64;
+  /**
+   * Latency histogram buckets. The last one also counts everything longer.
+   */
+  static final int BUCKETS = 32;
+
+  private static final Command.Type[] TYPES = Command.Type.values();
+  private static final RealMachine.SuperInterrupt[] SUPER_INTERRUPTS = RealMachine.SuperInterrupt.values();
+  private static final RealMachine.ProgramInterrupt[] PROGRAM_INTERRUPTS = RealMachine.ProgramInterrupt.values();
+  private static final int CHANNELS = 3;
+
+  private volatile boolean enabled = Boolean.getBoolean("vrm.stats");
+  private final LongAdder[] instructions = adders(TYPES.length);
+  /**
+   * Sampled latencies, {@link #BUCKETS} per type. Only 1 in {@link #SAMPLE_INTERVAL} instructions get here, so there's
+   * no need for striping.
+   */
+  private final AtomicLongArray latencies = new AtomicLongArray(TYPES.length * BUCKETS);
+  private final LongAdder[] superInterrupts = adders(SUPER_INTERRUPTS.length);
+  private final LongAdder[] programInterrupts = adders(PROGRAM_INTERRUPTS.length);
+  private final LongAdder timerInterrupts = new LongAdder();
+  private final LongAdder[] ioInterrupts = adders(CHANNELS);
+  private final LongAdder[] channelWaits = adders(CHANNELS);
+  private final LongAdder[] channelWaitNanos = adders(CHANNELS);
+  /**
+   * Instructions seen since the last sample. Updated by the executing thread only, so a lost update merely shifts the
+   * next sample.
+   */
+  private int unsampled;
+  @Nullable
+  private ObjectName name;
+
+  private static LongAdder[] adders(int count) {
+    final LongAdder[] adders = new LongAdder[count];
+    for (int i = 0; i < count; i++) {
+      adders[i] = new LongAdder();
+    }
+    return adders;
+  }
+
+  /**
+   * Registers the MBean in the platform MBean server. Failures are reported but don't prevent execution.
+   * @param machine name of the owning RM
+   */
+  synchronized void register(@NotNull String machine) {
+    try {
+      final ObjectName name = new ObjectName("vrm:type=RealMachine,name=" + machine);
+      ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+      this.name = name;
+    } catch (JMException e) {
+      e.printStackTrace();
+    }
+  }
+
+  synchronized void unregister() {
+    if (name == null) return;
+    try {
+      final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      if (server.isRegistered(name)) {
+        server.unregisterMBean(name);
+      }
+    } catch (JMException e) {
+      e.printStackTrace();
+    }
+    name = null;
+  }
+
+  /**
+   * Called before an instruction is executed.
+   * @return start time to pass to {@link #executed(Command.Type, long)} or 0 when this instruction isn't timed
+   */
+  long executing(@NotNull Command.Type type) {
+    if (!enabled) return 0;
+    instructions[type.ordinal()].increment();
+
+    if (++unsampled < SAMPLE_INTERVAL) return 0;
+    unsampled = 0;
+    return System.nanoTime();
+  }
+
+  /**
+   * Called after an instruction was executed.
+   * @param started value returned by {@link #executing(Command.Type)}
+   */
+  void executed(@NotNull Command.Type type, long started) {
+    if (started == 0) return;
+    final long nanos = System.nanoTime() - started;
+    final int bucket = Math.min(BUCKETS - 1, Math.max(0, 63 - Long.numberOfLeadingZeros(nanos)));
+    latencies.incrementAndGet(type.ordinal() * BUCKETS + bucket);
+  }
+
+  void superInterrupt(@NotNull RealMachine.SuperInterrupt interrupt) {
+    if (!enabled) return;
+    superInterrupts[interrupt.ordinal()].increment();
+  }
+
+  void programInterrupt(@NotNull RealMachine.ProgramInterrupt interrupt) {
+    if (!enabled) return;
+    programInterrupts[interrupt.ordinal()].increment();
+  }
+
+  void timerInterrupt() {
+    if (!enabled) return;
+    timerInterrupts.increment();
+  }
+
+  /**
+   * @param channel [1..3]
+   */
+  void ioInterrupt(int channel) {
+    if (!enabled) return;
+    ioInterrupts[channel - 1].increment();
+  }
+
+  /**
+   * @param channel [1..3]
+   * @param nanos   time the instruction was blocked
+   */
+  void channelWait(int channel, long nanos) {
+    if (!enabled) return;
+    channelWaits[channel - 1].increment();
+    channelWaitNanos[channel - 1].add(nanos);
+  }
+
+  @Override
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  @Override
+  public void setEnabled(boolean enabled) {
+    this.enabled = enabled;
+  }
+
+  @Override
+  public long getInstructions() {
+    long sum = 0;
+    for (LongAdder adder : instructions) {
+      sum += adder.sum();
+    }
+    return sum;
+  }
+
+  @Override
+  public Map<String, Long> getInstructionCounts() {
+    final Map<String, Long> counts = new LinkedHashMap<>();
+    for (Command.Type type : TYPES) {
+      counts.put(type.name(), instructions[type.ordinal()].sum());
+    }
+    return counts;
+  }
+
+  /**
+   * @return sampled latency histogram of the given type. See {@link #getLatencyHistograms()}.
+   */
+  public long[] getLatencyHistogram(@NotNull Command.Type type) {
+    final long[] histogram = new long[BUCKETS];
+    for (int i = 0; i < BUCKETS; i++) {
+      histogram[i] = latencies.get(type.ordinal() * BUCKETS + i);
+    }
+    return histogram;
+  }
+
+  @Override
+  public Map<String, long[]> getLatencyHistograms() {
+    final Map<String, long[]> histograms = new LinkedHashMap<>();
+    for (Command.Type type : TYPES) {
+      histograms.put(type.name(), getLatencyHistogram(type));
+    }
+    return histograms;
+  }
+
+  @Override
+  public Map<String, Long> getMedianLatencyNanos() {
+    return getPercentiles(0.5);
+  }
+
+  @Override
+  public Map<String, Long> getP99LatencyNanos() {
+    return getPercentiles(0.99);
+  }
+
+  /**
+   * @return upper bound of the bucket that contains the given percentile for every type that was sampled
+   */
+  private Map<String, Long> getPercentiles(double percentile) {
+    final Map<String, Long> percentiles = new LinkedHashMap<>();
+    for (Command.Type type : TYPES) {
+      final long[] histogram = getLatencyHistogram(type);
+      long total = 0;
+      for (long count : histogram) {
+        total += count;
+      }
+      if (total == 0) continue;
+
+      final long rank = (long) Math.ceil(total * percentile);
+      long seen = 0;
+      for (int i = 0; i < histogram.length; i++) {
+        seen += histogram[i];
+        if (seen >= rank) {
+          percentiles.put(type.name(), 1L << (i + 1));
+          break;
+        }
+      }
+    }
+    return percentiles;
+  }
+
+  @Override
+  public Map<String, Long> getSuperInterrupts() {
+    final Map<String, Long> counts = new LinkedHashMap<>();
+    for (RealMachine.SuperInterrupt interrupt : SUPER_INTERRUPTS) {
+      if (interrupt == RealMachine.SuperInterrupt.NONE) continue;
+      counts.put(interrupt.name(), superInterrupts[interrupt.ordinal()].sum());
+    }
+    return counts;
+  }
+
+  @Override
+  public Map<String, Long> getProgramInterrupts() {
+    final Map<String, Long> counts = new LinkedHashMap<>();
+    for (RealMachine.ProgramInterrupt interrupt : PROGRAM_INTERRUPTS) {
+      if (interrupt == RealMachine.ProgramInterrupt.NONE) continue;
+      counts.put(interrupt.name(), programInterrupts[interrupt.ordinal()].sum());
+    }
+    return counts;
+  }
+
+  @Override
+  public long getTimerInterrupts() {
+    return timerInterrupts.sum();
+  }
+
+  @Override
+  public long[] getIoInterrupts() {
+    return sums(ioInterrupts);
+  }
+
+  @Override
+  public long[] getChannelWaits() {
+    return sums(channelWaits);
+  }
+
+  @Override
+  public long[] getChannelWaitNanos() {
+    return sums(channelWaitNanos);
+  }
+
+  private static long[] sums(LongAdder[] adders) {
+    final long[] sums = new long[adders.length];
+    for (int i = 0; i < adders.length; i++) {
+      sums[i] = adders[i].sum();
+    }
+    return sums;
+  }
+
+  @Override
+  public void reset() {
+    for (LongAdder[] group : new LongAdder[][] { instructions, superInterrupts, programInterrupts, ioInterrupts, channelWaits, channelWaitNanos }) {
+      for (LongAdder adder : group) {
+        adder.reset();
+      }
+    }
+    timerInterrupts.reset();
+    for (int i = 0; i < latencies.length(); i++) {
+      latencies.set(i, 0);
+    }
+  }
+
+}
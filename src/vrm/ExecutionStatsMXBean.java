@@ -0,0 +1,75 @@
+package vrm;
+
+import java.util.Map;
+
+/**
+ * JMX view of a RM's {@link ExecutionStats}. Registered as {@code vrm:type=RealMachine,name=RM<id>}.
+ */
+public interface ExecutionStatsMXBean {
+
+  boolean isEnabled();
+
+  /**
+   * Starts or stops collecting. Collected values are kept.
+   */
+  void setEnabled(boolean enabled);
+
+  /**
+   * @return total executed instructions of the RM and its VMs
+   */
+  long getInstructions();
+
+  /**
+   * @return executed instructions by {@link Command.Type}
+   */
+  Map<String, Long> getInstructionCounts();
+
+  /**
+   * @return sampled execution latency histograms by {@link Command.Type}. Bucket i counts latencies in
+   * [2<sup>i</sup>, 2<sup>i+1</sup>) ns.
+   */
+  Map<String, long[]> getLatencyHistograms();
+
+  /**
+   * @return upper bound of the median sampled latency by {@link Command.Type}
+   */
+  Map<String, Long> getMedianLatencyNanos();
+
+  /**
+   * @return upper bound of the 99th percentile sampled latency by {@link Command.Type}
+   */
+  Map<String, Long> getP99LatencyNanos();
+
+  /**
+   * @return handled super interrupts by {@link RealMachine.SuperInterrupt}
+   */
+  Map<String, Long> getSuperInterrupts();
+
+  /**
+   * @return handled program interrupts by {@link RealMachine.ProgramInterrupt}
+   */
+  Map<String, Long> getProgramInterrupts();
+
+  long getTimerInterrupts();
+
+  /**
+   * @return handled I/O interrupts of channels 1, 2 and 3
+   */
+  long[] getIoInterrupts();
+
+  /**
+   * @return times an instruction waited for channels 1, 2 and 3 (busy channel or queued external memory request)
+   */
+  long[] getChannelWaits();
+
+  /**
+   * @return total time spent waiting for channels 1, 2 and 3
+   */
+  long[] getChannelWaitNanos();
+
+  /**
+   * Zeroes all collected values.
+   */
+  void reset();
+
+}
@@ -1,15 +1,44 @@
 package vrm;
 
-import com.sun.istack.internal.NotNull;
-import java.io.FileNotFoundException;
+import java.io.File;
 import java.io.IOException;
-import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import vrm.annotations.NotNull;
+import vrm.annotations.Nullable;
+import vrm.exceptions.UnrepresentableWordException;
 
 /**
  * External memory displaying output.
+ * <br>
+ * Thread safe. Blocks are accessed at explicit positions and locked in stripes of {@link #STRIPE_BLOCKS}, so reads of
+ * different (or the same) stripes run in parallel while writes exclude access to their stripe only. The
+ * {@link #getPointer() pointer} based methods are kept for single users, concurrent users should keep their own
+ * pointers and use {@link #read(int)} and {@link #write(int, Word[])}.
  */
 public class ExternalMemory implements Channel {
 
+  /**
+   * How the external memory file is accessed.
+   */
+  public enum Backend {
+    /**
+     * Seek and read/write a {@link java.io.RandomAccessFile}.
+     */
+    FILE,
+    /**
+     * Memory-map the whole file. Reads and writes become memory copies.
+     */
+    MAPPED
+  }
+
   /**
    * Size in blocks.
    */
@@ -17,40 +46,257 @@ public class ExternalMemory implements Channel {
   /**
    * How many words are written and read by a single command.
    */
-  private static final int WORD_IO = 10;
-  /**
-   * Line size is equal to {@link #WORD_IO} words with 9 spaces and a newline.
-   */
-  private static final int LINE_SIZE = Word.LENGTH * WORD_IO + 9 + 1;
+  static final int WORD_IO = 10;
   /**
    * Initially all external memory words will be filled with these characters.
    */
   private static final char FILLER = '0';
+  /**
+   * Max amount of queued block writes. When reached, the queue is flushed automatically.
+   */
+  private static final int MAX_PENDING_WRITES = 32;
+  /**
+   * Appended to the file path to get the journal path of {@link ExternalStorage.Durability#JOURNALED} files.
+   */
+  public static final String JOURNAL_SUFFIX = ".journal";
+  /**
+   * Amount of consecutive blocks guarded by a single lock.
+   */
+  private static final int STRIPE_BLOCKS = 10;
 
   /**
-   * External memory raf.
+   * External memory file.
+   */
+  private final ExternalStorage storage;
+  /**
+   * Layout of the file.
+   */
+  private final ExternalMemoryFormat format;
+  /**
+   * Block writes that haven't reached the file yet. Keyed (and sorted) by block index so that repeated writes to the
+   * same block are merged and adjacent blocks can be written in a single batch.
+   * Also guards storage writes, i.e. the queue is locked while it's flushed.
    */
-  private final RandomAccessFile raf;
+  private final TreeMap<Integer, byte[]> pendingWrites = new TreeMap<>();
+  /**
+   * Block locks. Stripe i guards blocks [i * STRIPE_BLOCKS, (i + 1) * STRIPE_BLOCKS). Multiple stripes are always
+   * locked in ascending order.
+   */
+  private final ReadWriteLock[] stripes = new ReadWriteLock[(SIZE + STRIPE_BLOCKS - 1) / STRIPE_BLOCKS];
+  /**
+   * Encoded block of {@link #FILLER} words.
+   */
+  private final byte[] filler;
+  /**
+   * Amount of complete blocks in the file. Files created by older versions may be shorter than {@link #SIZE}. Blocks
+   * past the end read as {@link #filler} and the file is extended with it on the first write past the end.
+   * Only grows, always with {@link #pendingWrites} locked.
+   */
+  private volatile int length;
+  /**
+   * Optional write-back cache. Dirty blocks are queued in {@link #pendingWrites} when they're evicted or flushed.
+   */
+  @Nullable
+  private volatile BlockCache cache;
+  /**
+   * Optional sequential read-ahead. Prefetched blocks are older than cached and queued ones, but newer than the file.
+   */
+  @Nullable
+  private volatile ReadAhead readAhead;
 
   /**
    * Pointer to a block. Valid values are [0..SIZE].
    */
-  private int pointer;
+  private volatile int pointer;
 
 
+  /**
+   * Opens the file with a {@link Backend#FILE} backend that synchronously writes every block.
+   */
   public ExternalMemory(String path) {
+    this(path, Backend.FILE, ExternalStorage.Durability.ALWAYS);
+  }
+
+  /**
+   * Opens a {@link ExternalMemoryFormat#TEXT} file, unless the existing file is detected to be in another format.
+   * @see #ExternalMemory(String, Backend, ExternalStorage.Durability, ExternalMemoryFormat)
+   */
+  public ExternalMemory(String path, @NotNull Backend backend, @NotNull ExternalStorage.Durability durability) {
+    this(path, backend, durability, ExternalMemoryFormat.TEXT);
+  }
+
+  /**
+   * @param path          external memory file. Layout is the same for every backend.
+   * @param backend       how the file is accessed
+   * @param durability    when written blocks are forced to the disk
+   * @param newFileFormat layout used when the file is empty or missing. Existing files keep their detected format.
+   */
+  public ExternalMemory(String path, @NotNull Backend backend, @NotNull ExternalStorage.Durability durability,
+                        @NotNull ExternalMemoryFormat newFileFormat) {
+    for (int i = 0; i < stripes.length; i++) {
+      stripes[i] = new ReentrantReadWriteLock();
+    }
+
     try {
-      raf = new RandomAccessFile(path, "rwd");
-    } catch (FileNotFoundException e) {
+      // Journal of a crashed run is newer than the file, whatever the file is opened with now
+      replayJournal(path);
+      final ExternalMemoryFormat detected = ExternalMemoryFormat.detect(new File(path));
+      format = (detected == null) ? newFileFormat : detected;
+
+      // Journaled files are forced by the journal instead
+      final ExternalStorage.Durability fileDurability =
+          (durability == ExternalStorage.Durability.JOURNALED) ? ExternalStorage.Durability.NONE : durability;
+      final ExternalStorage file;
+      switch (backend) {
+        case MAPPED:
+          file = new MappedStorage(path, fileDurability);
+          break;
+        default:
+          file = new FileStorage(path, fileDurability);
+      }
+      storage = (durability == ExternalStorage.Durability.JOURNALED)
+          ? new JournaledStorage(file, path + JOURNAL_SUFFIX)
+          : file;
+
+      // New files start with a header
+      if (detected == null && format.getHeaderSize() > 0) {
+        storage.write(0, format.getHeader());
+      }
+
+      filler = format.encode(fillerWords());
+      length = (int) Math.min(SIZE, Math.max(0, (storage.size() - format.getPosition(0)) / format.getBlockSize()));
+    } catch (IOException e) {
       e.printStackTrace();
       throw new IllegalStateException(String.format("External memory file (%s) missing and couldn't be created!", path));
     }
   }
 
   /**
-   * Initializes external memory file with {@link #FILLER}.
+   * Applies a journal left behind by a crash to the file and deletes it.
    */
-  public void initialize() {
+  private static void replayJournal(String path) throws IOException {
+    final File journal = new File(path + JOURNAL_SUFFIX);
+    if (!journal.isFile()) return;
+
+    // Replayed when opened, deleted when closed
+    new JournaledStorage(new FileStorage(path, ExternalStorage.Durability.NONE), journal.getPath()).close();
+  }
+
+  public ExternalMemoryFormat getFormat() {
+    return format;
+  }
+
+  /**
+   * Enables a least recently used write-back block cache. Reads of cached blocks don't touch the file and writes stay
+   * in the cache until the block is evicted or {@link #flush() flushed}.
+   * @param blocks max amount of cached blocks or 0 to disable the cache
+   */
+  public void setCacheSize(int blocks) {
+    if (blocks < 0) {
+      throw new IllegalArgumentException("Invalid cache size: " + blocks);
+    }
+
+    lockAll();
+    try {
+      // Dirty blocks of the previous cache must not be lost
+      writeBack();
+      cache = (blocks == 0) ? null : new BlockCache(blocks, this::queue);
+    } finally {
+      unlockAll();
+    }
+  }
+
+  /**
+   * Enables prefetching of blocks that follow sequential reads. Prefetching is done on a small pool of background
+   * threads shared by all external memories. The amount of blocks prefetched at once grows while the reads stay
+   * sequential and resets on random access.
+   * @param blocks max amount of blocks prefetched at once or 0 to disable read-ahead
+   */
+  public void setReadAhead(int blocks) {
+    setReadAhead(blocks, ReadAhead.EXECUTOR);
+  }
+
+  /**
+   * @param executor runs prefetches, e.g. {@code Runnable::run} to prefetch synchronously as part of the read that
+   *                 requests them
+   * @see #setReadAhead(int)
+   */
+  public void setReadAhead(int blocks, @NotNull Executor executor) {
+    if (blocks < 0) {
+      throw new IllegalArgumentException("Invalid read-ahead size: " + blocks);
+    }
+
+    lockAll();
+    try {
+      if (readAhead != null) {
+        readAhead.clear();
+      }
+      readAhead = (blocks == 0) ? null : new ReadAhead(blocks, SIZE, this::prefetch, executor);
+    } finally {
+      unlockAll();
+    }
+  }
+
+  /**
+   * @return amount of blocks read ahead
+   */
+  public long getPrefetchedBlocks() {
+    final ReadAhead readAhead = this.readAhead;
+    return (readAhead == null) ? 0 : readAhead.getPrefetched();
+  }
+
+  /**
+   * @return amount of reads served by read-ahead
+   */
+  public long getPrefetchHits() {
+    final ReadAhead readAhead = this.readAhead;
+    return (readAhead == null) ? 0 : readAhead.getHits();
+  }
+
+  /**
+   * @return amount of blocks read ahead that were dropped without being read, e.g. skipped or modified
+   */
+  public long getPrefetchWasted() {
+    final ReadAhead readAhead = this.readAhead;
+    return (readAhead == null) ? 0 : readAhead.getWasted();
+  }
+
+  /**
+   * @return amount of prefetch requests that failed or were dropped because the prefetch threads were too busy
+   */
+  public long getPrefetchFailures() {
+    final ReadAhead readAhead = this.readAhead;
+    return (readAhead == null) ? 0 : readAhead.getFailures();
+  }
+
+  /**
+   * @return amount of reads served by the cache
+   */
+  public long getCacheHits() {
+    final BlockCache cache = this.cache;
+    return (cache == null) ? 0 : cache.getHits();
+  }
+
+  /**
+   * @return amount of reads that weren't cached
+   */
+  public long getCacheMisses() {
+    final BlockCache cache = this.cache;
+    return (cache == null) ? 0 : cache.getMisses();
+  }
+
+  /**
+   * @return amount of blocks removed from the cache to make space for others
+   */
+  public long getCacheEvictions() {
+    final BlockCache cache = this.cache;
+    return (cache == null) ? 0 : cache.getEvictions();
+  }
+
+  /**
+   * @return {@link #WORD_IO} words of {@link #FILLER}
+   */
+  private static Word[] fillerWords() {
     // Create initial word
     String string = "";
     for (int i = 0; i < Word.LENGTH; i++) {
@@ -63,21 +309,75 @@ public class ExternalMemory implements Channel {
     for (int i = 0; i < WORD_IO; i++) {
       words[i] = word;
     }
+    return words;
+  }
+
+  /**
+   * Initializes all {@link #SIZE} external memory blocks with {@link #FILLER}.
+   * Queued and cached writes are discarded.
+   */
+  public void initialize() {
+    lockAll();
+    try {
+      // Everything queued, cached or prefetched is about to be overwritten. The cache is always locked before the queue.
+      if (cache != null) {
+        cache.clear();
+      }
+      if (readAhead != null) {
+        readAhead.clear();
+      }
+      synchronized (pendingWrites) {
+        pendingWrites.clear();
+        pointer = 0;
+
+        // Fill all blocks with a single write and make sure it reaches the disk before anything else is done
+        storage.fill(format.getPosition(0), filler, SIZE);
+        storage.force();
+        length = SIZE;
+      }
+    } catch (IOException e) {
+      e.printStackTrace();
+      throw new RuntimeException(e);
+    } finally {
+      unlockAll();
+    }
+  }
+
+  /**
+   * Locks every stripe for writing.
+   */
+  private void lockAll() {
+    lockRange(0, SIZE, true);
+  }
+
+  private void unlockAll() {
+    unlockRange(0, SIZE, true);
+  }
 
-    // Write 100 times incrementing pointer each time (note reference is the same!)
-    for (int i = 0; i < Math.ceil(SIZE / WORD_IO); i++) {
-      write(words);
-      setPointer(getPointer() + 1);
+  /**
+   * Locks stripes of the given blocks in ascending order.
+   * @param write true for exclusive access, false for shared
+   */
+  private void lockRange(int start, int count, boolean write) {
+    for (int i = start / STRIPE_BLOCKS; i <= (start + count - 1) / STRIPE_BLOCKS; i++) {
+      (write ? stripes[i].writeLock() : stripes[i].readLock()).lock();
     }
+  }
 
-    // Reset pointer
-    setPointer(0);
+  private void unlockRange(int start, int count, boolean write) {
+    for (int i = (start + count - 1) / STRIPE_BLOCKS; i >= start / STRIPE_BLOCKS; i--) {
+      (write ? stripes[i].writeLock() : stripes[i].readLock()).unlock();
+    }
   }
 
   public int getPointer() {
     return pointer;
   }
 
+  /**
+   * Moves the pointer. Queued writes aren't flushed, they're sorted by block anyway, so writes scattered over the
+   * file still reach it in a single flush.
+   */
   public void setPointer(int pointer) {
     if (pointer < 0 || pointer > SIZE) {
       throw new IllegalArgumentException("Invalid pointer: " + pointer);
@@ -93,85 +393,479 @@ public class ExternalMemory implements Channel {
    * @throws RuntimeException if errors occur while reading from external memory file
    */
   public Word[] read() throws RuntimeException {
+    return read(pointer);
+  }
+
+  /**
+   * Reads 10 words of the given block. The pointer isn't used.
+   * @throws RuntimeException if errors occur while reading from external memory file
+   */
+  public Word[] read(int block) throws RuntimeException {
+    final Word[] words = new Word[WORD_IO];
+    for (int i = 0; i < words.length; i++) {
+      words[i] = new Word();
+    }
+    read(block, words);
+    return words;
+  }
+
+  /**
+   * Reads the given block straight into existing words, e.g. words of RM memory. Symbols are copied from the read
+   * bytes without creating any words or strings.
+   * @param targets {@link #WORD_IO} words that are overwritten
+   * @throws RuntimeException if errors occur while reading from external memory file
+   */
+  public void read(int block, @NotNull Word[] targets) throws RuntimeException {
+    checkRange(block, 1);
+    if (targets.length < WORD_IO) {
+      throw new IllegalStateException("Not enough word provided for an input!");
+    }
+
+    lockRange(block, 1, false);
     try {
-      return readInternal();
+      format.decode(readInternal(block), targets);
     } catch (IOException e) {
       e.printStackTrace();
       throw new RuntimeException(e);
+    } finally {
+      unlockRange(block, 1, false);
+    }
+
+    final ReadAhead readAhead = this.readAhead;
+    if (readAhead != null) {
+      readAhead.access(block);
     }
   }
 
-  private Word[] readInternal() throws IOException {
-    // Seek to pointed position
-    raf.seek(pointer * LINE_SIZE);
+  /**
+   * Must be called with the block's stripe locked.
+   */
+  private byte[] readInternal(int block) throws IOException {
+    final BlockCache cache = this.cache;
+    // Cached blocks are the newest
+    if (cache != null) {
+      final byte[] cached = cache.get(block);
+      if (cached != null) {
+        return cached;
+      }
+    }
 
-    // Fill buffer
-    final byte[] buffer = new byte[LINE_SIZE];
-    raf.readFully(buffer);
+    // Queued writes are newer than the file
+    byte[] buffer;
+    synchronized (pendingWrites) {
+      buffer = pendingWrites.get(block);
+    }
+    final ReadAhead readAhead = this.readAhead;
+    if (buffer == null && readAhead != null) {
+      buffer = readAhead.take(block);
+    }
+    if (buffer == null) {
+      // Checked after the queue, since a flush extends the file before the queued block leaves it
+      if (block >= length) {
+        buffer = filler.clone();
+      } else {
+        // Fill buffer from the block's position
+        buffer = new byte[format.getBlockSize()];
+        storage.read(format.getPosition(block), buffer);
+      }
+    }
 
-    // Convert bytes to word
-    final Word[] words = new Word[WORD_IO];
-    int offset = 0;
-    // There are 10 word on 1 line
-    for (int i = 0; i < WORD_IO; i++) {
-      words[i] = new Word(new String(buffer, offset, Word.LENGTH));
+    if (cache != null) {
+      cache.put(block, buffer, false);
+    }
+
+    return buffer;
+  }
+
+  /**
+   * Reads multiple consecutive blocks. Blocks that aren't cached or queued are read with a single scatter read per run.
+   * The pointer isn't affected.
+   * @param start first block
+   * @param count amount of blocks
+   * @return {@link #WORD_IO} words for every block
+   * @throws RuntimeException if errors occur while reading from external memory file
+   */
+  public Word[][] readBlocks(int start, int count) throws RuntimeException {
+    checkRange(start, count);
 
-      // Increment offset by word length + a space
-      offset += Word.LENGTH + 1;
+    final Word[][] blocks = new Word[count][WORD_IO];
+    for (Word[] block : blocks) {
+      for (int i = 0; i < block.length; i++) {
+        block[i] = new Word();
+      }
     }
+    readBlocks(start, blocks);
+    return blocks;
+  }
 
-    return words;
+  /**
+   * Reads multiple consecutive blocks straight into existing words.
+   * @param start   first block
+   * @param targets {@link #WORD_IO} words for every block that are overwritten
+   * @throws RuntimeException if errors occur while reading from external memory file
+   * @see #readBlocks(int, int)
+   * @see #read(int, Word[])
+   */
+  public void readBlocks(int start, @NotNull Word[][] targets) throws RuntimeException {
+    final int count = targets.length;
+    checkRange(start, count);
+    for (Word[] target : targets) {
+      if (target.length < WORD_IO) {
+        throw new IllegalStateException("Not enough word provided for an input!");
+      }
+    }
+
+    lockRange(start, count, false);
+    try {
+      readBlocksInternal(start, targets);
+    } catch (IOException e) {
+      e.printStackTrace();
+      throw new RuntimeException(e);
+    } finally {
+      unlockRange(start, count, false);
+    }
+
+    // A multi-block read continues a stream from its last block
+    final ReadAhead readAhead = this.readAhead;
+    if (readAhead != null) {
+      readAhead.access(start + count - 1);
+    }
+  }
+
+  private void readBlocksInternal(int start, @NotNull Word[][] targets) throws IOException {
+    final int count = targets.length;
+    final BlockCache cache = this.cache;
+    final ReadAhead readAhead = this.readAhead;
+    final byte[][] lines = new byte[count][];
+
+    // Take what's cached, queued or prefetched
+    for (int i = 0; i < count; i++) {
+      if (cache != null) {
+        lines[i] = cache.get(start + i);
+      }
+      if (lines[i] == null) {
+        synchronized (pendingWrites) {
+          lines[i] = pendingWrites.get(start + i);
+        }
+      }
+      if (lines[i] == null && readAhead != null) {
+        lines[i] = readAhead.take(start + i);
+      }
+    }
+
+    // Read runs of missing blocks. Blocks past the end of the file aren't read.
+    final int length = this.length;
+    int i = 0;
+    while (i < count) {
+      if (lines[i] != null) {
+        i++;
+        continue;
+      }
+      if (start + i >= length) {
+        lines[i] = filler.clone();
+        if (cache != null) {
+          cache.put(start + i, lines[i], false);
+        }
+        i++;
+        continue;
+      }
+
+      final int runStart = i;
+      while (i < count && lines[i] == null && start + i < length) {
+        lines[i++] = new byte[format.getBlockSize()];
+      }
+
+      final ByteBuffer[] buffers = new ByteBuffer[i - runStart];
+      for (int j = 0; j < buffers.length; j++) {
+        buffers[j] = ByteBuffer.wrap(lines[runStart + j]);
+      }
+      storage.read(format.getPosition(start + runStart), buffers);
+
+      if (cache != null) {
+        for (int j = runStart; j < i; j++) {
+          cache.put(start + j, lines[j], false);
+        }
+      }
+    }
+
+    for (int j = 0; j < count; j++) {
+      format.decode(lines[j], targets[j]);
+    }
+  }
+
+  /**
+   * Writes multiple consecutive blocks. Like {@link #write(Word[])} blocks are queued (or cached) and later flushed
+   * with a single gather write per run of adjacent blocks.
+   * The pointer isn't affected.
+   * @param start  first block
+   * @param blocks {@link #WORD_IO} words for every block
+   * @throws UnrepresentableWordException when a word can't be stored in the file's format. Nothing is written.
+   * @throws RuntimeException if errors occur while writing to external memory file
+   */
+  public void writeBlocks(int start, @NotNull Word[][] blocks) throws RuntimeException {
+    checkRange(start, blocks.length);
+
+    for (int i = 0; i < blocks.length; i++) {
+      if (blocks[i].length < WORD_IO) {
+        throw new IllegalStateException("Not enough word provided for an output!");
+      }
+    }
+
+    // Encoded up front, so either every block is written or none is
+    final byte[][] encoded = new byte[blocks.length][];
+    for (int i = 0; i < blocks.length; i++) {
+      encoded[i] = format.encode(blocks[i]);
+    }
+
+    lockRange(start, blocks.length, true);
+    try {
+      for (int i = 0; i < blocks.length; i++) {
+        writeInternal(start + i, encoded[i]);
+      }
+    } finally {
+      unlockRange(start, blocks.length, true);
+    }
+  }
+
+  /**
+   * Reads blocks that aren't cached, queued or prefetched yet into {@link #readAhead}. Runs on a prefetch thread.
+   * Read locks make sure a block can't be modified between being read and being stored.
+   */
+  private void prefetch(int start, int count) throws IOException {
+    final ReadAhead readAhead = this.readAhead;
+    if (readAhead == null) return;
+
+    lockRange(start, count, false);
+    try {
+      // Read runs of missing blocks. Blocks past the end of the file are never read from it.
+      final int end = Math.min(start + count, length);
+      int block = start;
+      while (block < end) {
+        if (isAvailable(block, readAhead)) {
+          block++;
+          continue;
+        }
+
+        final int runStart = block;
+        while (block < end && !isAvailable(block, readAhead)) {
+          block++;
+        }
+
+        final byte[][] lines = new byte[block - runStart][format.getBlockSize()];
+        final ByteBuffer[] buffers = new ByteBuffer[lines.length];
+        for (int i = 0; i < buffers.length; i++) {
+          buffers[i] = ByteBuffer.wrap(lines[i]);
+        }
+        storage.read(format.getPosition(runStart), buffers);
+
+        for (int i = 0; i < lines.length; i++) {
+          readAhead.put(runStart + i, lines[i]);
+        }
+      }
+    } finally {
+      unlockRange(start, count, false);
+    }
   }
 
   /**
-   * Writes 10 word starting with the location pointed by {@link #pointer}.
+   * @return true if the block can be read without accessing the file
+   */
+  private boolean isAvailable(int block, @NotNull ReadAhead readAhead) {
+    final BlockCache cache = this.cache;
+    if (cache != null && cache.contains(block)) return true;
+    synchronized (pendingWrites) {
+      if (pendingWrites.containsKey(block)) return true;
+    }
+    return readAhead.contains(block);
+  }
+
+  private void checkRange(int start, int count) {
+    if (start < 0 || count <= 0 || start + count > SIZE) {
+      throw new IllegalArgumentException(String.format("Invalid block range: %d + %d", start, count));
+    }
+  }
+
+  /**
+   * Queues a write of 10 words starting with the location pointed by {@link #pointer}.
+   * Repeated writes to the same block are merged. Queued writes reach the file when {@link #flush()} or
+   * {@link #drain()} is called, either explicitly or automatically (full queue, {@link #close()}). When the cache is
+   * enabled, the block
+   * stays in the cache until it's evicted or flushed.
    * The pointer is not shifted afterwards!
+   * @throws UnrepresentableWordException when a word can't be stored in the file's format. Nothing is written.
    * @throws RuntimeException if errors occur while writing to external memory file
    */
   public void write(@NotNull Word[] words) throws RuntimeException {
+    write(pointer, words);
+  }
+
+  /**
+   * Writes 10 words to the given block. The pointer isn't used.
+   * @see #write(Word[])
+   */
+  public void write(int block, @NotNull Word[] words) throws RuntimeException {
+    checkRange(block, 1);
+    // Ensure we've the correct amount of word
+    if (words.length < WORD_IO) {
+      throw new IllegalStateException("Not enough word provided for an output!");
+    }
+
+    final byte[] bytes = format.encode(words);
+    lockRange(block, 1, true);
     try {
-      writeInternal(words);
+      writeInternal(block, bytes);
+    } finally {
+      unlockRange(block, 1, true);
+    }
+  }
+
+  /**
+   * Caches or queues an encoded block. Must be called with the block's stripe locked for writing.
+   */
+  private void writeInternal(int block, @NotNull byte[] bytes) {
+    final ReadAhead readAhead = this.readAhead;
+    if (readAhead != null) {
+      readAhead.invalidate(block);
+    }
+
+    final BlockCache cache = this.cache;
+    if (cache != null) {
+      cache.put(block, bytes, true);
+    } else {
+      queue(block, bytes);
+    }
+  }
+
+  /**
+   * Queues an encoded block write. Flushes the queue when it's full.
+   */
+  private void queue(int block, @NotNull byte[] bytes) {
+    synchronized (pendingWrites) {
+      pendingWrites.put(block, bytes);
+
+      if (pendingWrites.size() >= MAX_PENDING_WRITES) {
+        try {
+          flushPending();
+        } catch (IOException e) {
+          e.printStackTrace();
+          throw new RuntimeException(e);
+        }
+      }
+    }
+  }
+
+  /**
+   * Writes all queued and cached dirty blocks to the file. Adjacent blocks are combined and written with a single call.
+   * Acts as a barrier: once this returns, every previous {@link #write(Word[])} has reached the file and, unless the
+   * durability is {@link ExternalStorage.Durability#NONE}, the disk. Journaled files are checkpointed.
+   * @throws RuntimeException if errors occur while writing to external memory file
+   */
+  public void flush() throws RuntimeException {
+    writeBack();
+    if (storage.durability == ExternalStorage.Durability.NONE) return;
+
+    try {
+      // Queue lock keeps concurrent queue flushes out, a journal checkpoint must not interleave with their writes
+      synchronized (pendingWrites) {
+        storage.force();
+      }
     } catch (IOException e) {
       e.printStackTrace();
       throw new RuntimeException(e);
     }
   }
 
-  private void writeInternal(@NotNull Word[] words) throws IOException {
-    // Ensure we've the correct amount of word
-    if (words.length < WORD_IO) {
-      throw new IllegalStateException("Not enough word provided for an output!");
+  /**
+   * Writes all queued and cached dirty blocks to the file without forcing them.
+   */
+  private void writeBack() throws RuntimeException {
+    final BlockCache cache = this.cache;
+    if (cache != null) {
+      cache.writeBack();
+    }
+    drain();
+  }
+
+  /**
+   * Writes queued blocks to the file. Unlike {@link #flush()}, dirty cached blocks stay in the cache until they're
+   * evicted, so a block that's written over and over doesn't reach the file every time. Meant for idle points, e.g.
+   * the end of a time slice.
+   * @throws RuntimeException if errors occur while writing to external memory file
+   */
+  public void drain() throws RuntimeException {
+    try {
+      synchronized (pendingWrites) {
+        flushPending();
+      }
+    } catch (IOException e) {
+      e.printStackTrace();
+      throw new RuntimeException(e);
     }
+  }
 
-    // Seek to pointed position
-    raf.seek(pointer * LINE_SIZE);
+  /**
+   * Writes queued blocks to the file with a single storage write, so they're forced (or journaled) together.
+   * Must be called with {@link #pendingWrites} locked.
+   */
+  private void flushPending() throws IOException {
+    final Iterator<Map.Entry<Integer, byte[]>> iterator = pendingWrites.entrySet().iterator();
+    if (!iterator.hasNext()) return;
 
-    // Convert word to bytes
-    final byte[] bytes = new byte[LINE_SIZE];
-    int offset = 0;
-    for (int i = 0; i < WORD_IO; i++) {
-      final byte[] wordBytes = String.format("%s ", words[i].toString()).getBytes();
+    if (pendingWrites.lastKey() >= length) {
+      // Extend a short file with encoded filler blocks instead of leaving a gap of NULs before the written block
+      storage.fill(format.getPosition(length), filler, SIZE - length);
+      storage.force();
+      length = SIZE;
+    }
 
-      System.arraycopy(wordBytes, 0, bytes, offset, wordBytes.length);
+    final long[] positions = new long[pendingWrites.size()];
+    final ByteBuffer[][] runs = new ByteBuffer[pendingWrites.size()][];
+    int runCount = 0;
+    Map.Entry<Integer, byte[]> entry = iterator.next();
+    while (entry != null) {
+      // Collect a run of adjacent blocks
+      final int start = entry.getKey();
+      int end = start;
+      final ByteBuffer[] lines = new ByteBuffer[pendingWrites.size()];
+      int count = 0;
+      lines[count++] = ByteBuffer.wrap(entry.getValue());
+      entry = null;
+      while (iterator.hasNext()) {
+        final Map.Entry<Integer, byte[]> next = iterator.next();
+        if (next.getKey() != end + 1) {
+          entry = next;
+          break;
+        }
+        end++;
+        lines[count++] = ByteBuffer.wrap(next.getValue());
+      }
 
-      // Increment offset by word length + a space
-      offset += wordBytes.length;
+      // Gather the whole run starting at its first block
+      positions[runCount] = format.getPosition(start);
+      runs[runCount++] = Arrays.copyOf(lines, count);
     }
-    // New line at the end
-    bytes[bytes.length - 1] = '\n';
 
-    // Write bytes
-    raf.write(bytes);
+    storage.write(Arrays.copyOf(positions, runCount), Arrays.copyOf(runs, runCount));
+    pendingWrites.clear();
   }
 
   /**
-   * Closes the file and invalidates this object.
+   * Flushes queued writes, closes the file and invalidates this object.
    */
   public void close() {
+    lockAll();
     try {
-      raf.close();
+      // Prefetches still running fail once the file is closed and are counted as failures
+      if (readAhead != null) {
+        readAhead.clear();
+      }
+      // Forced by the storage when it's closed
+      writeBack();
+      storage.close();
     } catch (IOException e) {
       e.printStackTrace();
+    } finally {
+      unlockAll();
     }
   }
 
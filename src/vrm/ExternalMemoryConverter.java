@@ -0,0 +1,85 @@
+package vrm;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import vrm.annotations.NotNull;
+import vrm.exceptions.UnrepresentableWordException;
+
+/**
+ * Converts external memory files between {@link ExternalMemoryFormat}s.
+ * Usage: {@code ExternalMemoryConverter <source> <target> <text|binary>}
+ */
+public class ExternalMemoryConverter {
+
+  /**
+   * Private c-tor.
+   */
+  private ExternalMemoryConverter() {}
+
+  /**
+   * Converts every complete block of the source file to the given format. The source format is detected.
+   * Blocks are written to a temporary file next to the target, which replaces the target only once every block is
+   * converted. A failed conversion leaves the target untouched.
+   * @param source external memory file to read
+   * @param target file to (over)write. May be the source itself.
+   * @param format layout of the target file
+   * @return amount of converted blocks
+   * @throws UnrepresentableWordException when a word can't be represented in the target format
+   */
+  public static int convert(@NotNull File source, @NotNull File target, @NotNull ExternalMemoryFormat format)
+      throws IOException, UnrepresentableWordException {
+    ExternalMemoryFormat sourceFormat = ExternalMemoryFormat.detect(source);
+    if (sourceFormat == null) {
+      // Nothing to convert, but the target should still be a valid (empty) file
+      sourceFormat = format;
+    }
+
+    final long length = source.isFile() ? source.length() : 0;
+    final int blocks = (int) Math.min(ExternalMemory.SIZE,
+        Math.max(0, length - sourceFormat.getHeaderSize()) / sourceFormat.getBlockSize());
+
+    final Path temporary = Files.createTempFile(target.getAbsoluteFile().getParentFile().toPath(), target.getName(), ".tmp");
+    try {
+      try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(source)));
+           OutputStream output = new BufferedOutputStream(new FileOutputStream(temporary.toFile()))) {
+        // Skip source header
+        input.readFully(new byte[sourceFormat.getHeaderSize()]);
+
+        output.write(format.getHeader());
+
+        final byte[] buffer = new byte[sourceFormat.getBlockSize()];
+        for (int i = 0; i < blocks; i++) {
+          input.readFully(buffer);
+          output.write(format.encode(sourceFormat.decode(buffer)));
+        }
+      }
+
+      Files.move(temporary, target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } finally {
+      Files.deleteIfExists(temporary);
+    }
+
+    return blocks;
+  }
+
+  public static void main(String[] args) throws IOException {
+    if (args.length != 3) {
+      System.err.println("Usage: ExternalMemoryConverter <source> <target> <text|binary>");
+      System.exit(1);
+    }
+
+    final ExternalMemoryFormat format = ExternalMemoryFormat.valueOf(args[2].toUpperCase());
+    final int blocks = convert(new File(args[0]), new File(args[1]), format);
+    System.out.println(String.format("Converted %d blocks to %s.", blocks, format));
+  }
+
+}
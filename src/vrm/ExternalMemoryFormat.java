@@ -0,0 +1,248 @@
+package vrm;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import vrm.annotations.NotNull;
+import vrm.exceptions.UnrepresentableWordException;
+
+/**
+ * Layout of an external memory file. Every block is stored at {@link #getPosition(int)} and takes
+ * {@link #getBlockSize()} bytes.
+ */
+public enum ExternalMemoryFormat {
+
+  /**
+   * Human readable. Each block is a line of {@link ExternalMemory#WORD_IO} words separated by spaces and ending in a
+   * newline, e.g. "00000 00001 ... 00009\n".
+   */
+  TEXT {
+    @Override
+    public int getHeaderSize() {
+      return 0;
+    }
+
+    @Override
+    public int getBlockSize() {
+      return Word.LENGTH * ExternalMemory.WORD_IO + 9 + 1;
+    }
+
+    @Override
+    public byte[] encode(@NotNull Word[] words) {
+      final byte[] bytes = new byte[getBlockSize()];
+      int offset = 0;
+      for (int i = 0; i < ExternalMemory.WORD_IO; i++) {
+        words[i].write(bytes, offset);
+        bytes[offset + Word.LENGTH] = ' ';
+
+        // Increment offset by word length + a space
+        offset += Word.LENGTH + 1;
+      }
+      // New line at the end
+      bytes[bytes.length - 1] = '\n';
+
+      return bytes;
+    }
+
+    @Override
+    public void decode(@NotNull byte[] bytes, @NotNull Word[] targets) {
+      int offset = 0;
+      // There are 10 word on 1 line
+      for (int i = 0; i < ExternalMemory.WORD_IO; i++) {
+        targets[i].read(bytes, offset);
+
+        // Increment offset by word length + a space
+        offset += Word.LENGTH + 1;
+      }
+    }
+
+    @Override
+    public byte[] getHeader() {
+      return new byte[0];
+    }
+  },
+
+  /**
+   * Packed. Starts with a {@link #BINARY_HEADER_SIZE} byte header (magic, version and geometry) followed by blocks of
+   * 4 byte words. A numeric word is stored as its value. Any other word is escaped: the sign bit is set and the
+   * remaining bits hold its symbols as a base {@link #ALPHABET} number. Words with other symbols can't be stored.
+   */
+  BINARY {
+    @Override
+    public int getHeaderSize() {
+      return BINARY_HEADER_SIZE;
+    }
+
+    @Override
+    public int getBlockSize() {
+      return 4 * ExternalMemory.WORD_IO;
+    }
+
+    @Override
+    public byte[] encode(@NotNull Word[] words) {
+      final ByteBuffer buffer = ByteBuffer.allocate(getBlockSize());
+      for (int i = 0; i < ExternalMemory.WORD_IO; i++) {
+        buffer.putInt(pack(words[i]));
+      }
+      return buffer.array();
+    }
+
+    @Override
+    public void decode(@NotNull byte[] bytes, @NotNull Word[] targets) {
+      final ByteBuffer buffer = ByteBuffer.wrap(bytes);
+      for (int i = 0; i < ExternalMemory.WORD_IO; i++) {
+        unpack(buffer.getInt(), targets[i]);
+      }
+    }
+
+    @Override
+    public byte[] getHeader() {
+      return ByteBuffer.allocate(BINARY_HEADER_SIZE)
+          .put(MAGIC)
+          .putInt(VERSION)
+          .putInt(ExternalMemory.SIZE)
+          .putShort((short) ExternalMemory.WORD_IO)
+          .putShort((short) Word.LENGTH)
+          .array();
+    }
+  };
+
+  /**
+   * First bytes of a {@link #BINARY} file. The first one isn't printable, so a {@link #TEXT} file can't start with it.
+   */
+  private static final byte[] MAGIC = { (byte) 0x89, 'V', 'R', 'M' };
+  /**
+   * {@link #BINARY} layout version.
+   */
+  private static final int VERSION = 1;
+  /**
+   * Magic (4), version (4), block count (4), words per block (2) and word length (2).
+   */
+  private static final int BINARY_HEADER_SIZE = 16;
+  /**
+   * Symbols of escaped {@link #BINARY} words. 73^5 fits in 31 bits.
+   */
+  private static final String ALPHABET = " 0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz_-.,:;!?+*";
+  private static final int ESCAPE = 0x80000000;
+
+  /**
+   * @return size of the header at the beginning of the file
+   */
+  public abstract int getHeaderSize();
+
+  /**
+   * @return size of a single block of {@link ExternalMemory#WORD_IO} words
+   */
+  public abstract int getBlockSize();
+
+  /**
+   * Converts {@link ExternalMemory#WORD_IO} words to {@link #getBlockSize()} bytes.
+   * @throws UnrepresentableWordException when a word can't be represented in this format
+   */
+  public abstract byte[] encode(@NotNull Word[] words) throws UnrepresentableWordException;
+
+  /**
+   * Converts {@link #getBlockSize()} bytes to {@link ExternalMemory#WORD_IO} new words.
+   */
+  public Word[] decode(@NotNull byte[] bytes) {
+    final Word[] words = new Word[ExternalMemory.WORD_IO];
+    for (int i = 0; i < words.length; i++) {
+      words[i] = new Word();
+    }
+    decode(bytes, words);
+    return words;
+  }
+
+  /**
+   * Converts {@link #getBlockSize()} bytes to {@link ExternalMemory#WORD_IO} words by overwriting the symbols of the
+   * given words in place, e.g. words of RM memory. No words or strings are created.
+   */
+  public abstract void decode(@NotNull byte[] bytes, @NotNull Word[] targets);
+
+  /**
+   * @return header written at the beginning of a new file
+   */
+  public abstract byte[] getHeader();
+
+  /**
+   * @return file position of the given block
+   */
+  public long getPosition(int block) {
+    return getHeaderSize() + (long) block * getBlockSize();
+  }
+
+  /**
+   * Detects the format of an existing file. Empty or missing files have no format.
+   * @return detected format or null if the file is empty or missing
+   * @throws IllegalStateException when a {@link #BINARY} header doesn't match this build's version or geometry
+   */
+  public static ExternalMemoryFormat detect(@NotNull File file) throws IOException, IllegalStateException {
+    if (!file.isFile() || file.length() == 0) return null;
+    if (file.length() < BINARY_HEADER_SIZE) return TEXT;
+
+    final byte[] header = new byte[BINARY_HEADER_SIZE];
+    try (DataInputStream input = new DataInputStream(new FileInputStream(file))) {
+      input.readFully(header);
+    }
+
+    if (!Arrays.equals(Arrays.copyOf(header, MAGIC.length), MAGIC)) return TEXT;
+
+    if (!Arrays.equals(header, BINARY.getHeader())) {
+      throw new IllegalStateException(String.format("Unsupported binary external memory version or geometry in %s!", file));
+    }
+
+    return BINARY;
+  }
+
+  /**
+   * Converts a word to 4 bytes. Numbers are stored as is, everything else is escaped.
+   */
+  private static int pack(@NotNull Word word) throws UnrepresentableWordException {
+    int number = 0;
+    for (int i = 0; i < Word.LENGTH; i++) {
+      final char symbol = word.getSymbol(i);
+      if (symbol < '0' || symbol > '9') {
+        number = -1;
+        break;
+      }
+      number = number * 10 + (symbol - '0');
+    }
+    if (number != -1) {
+      return number;
+    }
+
+    int value = 0;
+    for (int i = 0; i < Word.LENGTH; i++) {
+      final int digit = ALPHABET.indexOf(word.getSymbol(i));
+      if (digit == -1) {
+        throw new UnrepresentableWordException(String.format("Word %s can't be stored in the binary format!", word));
+      }
+      value = value * ALPHABET.length() + digit;
+    }
+
+    return ESCAPE | value;
+  }
+
+  /**
+   * Converts 4 bytes back to a word by overwriting the symbols of the target.
+   */
+  private static void unpack(int value, @NotNull Word target) {
+    if ((value & ESCAPE) == 0) {
+      for (int i = Word.LENGTH - 1; i >= 0; i--) {
+        target.setSymbol(i, (char) ('0' + value % 10));
+        value /= 10;
+      }
+      return;
+    }
+
+    value &= ~ESCAPE;
+    for (int i = Word.LENGTH - 1; i >= 0; i--) {
+      target.setSymbol(i, ALPHABET.charAt(value % ALPHABET.length()));
+      value /= ALPHABET.length();
+    }
+  }
+
+}
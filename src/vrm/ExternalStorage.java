@@ -0,0 +1,168 @@
+package vrm;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import vrm.annotations.NotNull;
+
+/**
+ * Byte level access to an external memory file. Implementations decide how bytes reach the disk while
+ * {@link Durability} decides when they're forced to it.
+ */
+public abstract class ExternalStorage {
+
+  /**
+   * When written bytes are forced to the disk.
+   */
+  public enum Durability {
+    /**
+     * After every write.
+     */
+    ALWAYS,
+    /**
+     * At most once per {@link #FORCE_INTERVAL_MILLIS}, on the first write after the interval passes, and on close.
+     */
+    PERIODIC,
+    /**
+     * Never. Left up to the OS.
+     */
+    NONE,
+    /**
+     * Every write is appended to a journal which is forced once per write, so a flush of many queued blocks costs a
+     * single sync (group commit). The file itself is only forced at checkpoints. Journaled writes that didn't reach
+     * the file before a crash are replayed when it's opened again.
+     * @see JournaledStorage
+     */
+    JOURNALED
+  }
+
+  /**
+   * Interval between forces for {@link Durability#PERIODIC}.
+   */
+  private static final long FORCE_INTERVAL_MILLIS = 1000;
+
+  @NotNull
+  protected final Durability durability;
+  /**
+   * Written by whichever thread forces, read by every writer.
+   */
+  private volatile long lastForce = System.currentTimeMillis();
+
+  protected ExternalStorage(@NotNull Durability durability) {
+    this.durability = durability;
+  }
+
+  /**
+   * Fills the buffer with bytes starting at the given position.
+   */
+  public void read(long position, @NotNull byte[] buffer) throws IOException {
+    read(position, ByteBuffer.wrap(buffer));
+  }
+
+  /**
+   * Scatter read. Fills the buffers one after another with consecutive bytes starting at the given position.
+   * @throws java.io.EOFException when the file ends before all buffers are filled
+   */
+  public abstract void read(long position, @NotNull ByteBuffer... buffers) throws IOException;
+
+  /**
+   * Writes bytes starting at the given position. Forces them to the disk based on {@link #durability}.
+   */
+  public void write(long position, @NotNull byte[] bytes) throws IOException {
+    write(position, ByteBuffer.wrap(bytes));
+  }
+
+  /**
+   * Gather write. Writes the buffers one after another starting at the given position. Forces them to the disk based
+   * on {@link #durability}.
+   */
+  public void write(long position, @NotNull ByteBuffer... buffers) throws IOException {
+    write(new long[] { position }, new ByteBuffer[][] { buffers });
+  }
+
+  /**
+   * Gathers several runs of buffers, each starting at its own position. Bytes are forced to the disk based on
+   * {@link #durability} once, after all runs are written.
+   * @param positions starting position of every run
+   * @param runs      buffers of every run
+   */
+  public void write(@NotNull long[] positions, @NotNull ByteBuffer[][] runs) throws IOException {
+    writeInternal(positions, runs);
+
+    switch (durability) {
+      case ALWAYS:
+        if (!isSynchronous()) {
+          force();
+        }
+        break;
+      case PERIODIC:
+        if (System.currentTimeMillis() - lastForce >= FORCE_INTERVAL_MILLIS) {
+          force();
+        }
+        break;
+      case NONE:
+        break;
+      case JOURNALED:
+        // Journal is forced by the storage itself
+        break;
+    }
+  }
+
+  protected abstract void writeInternal(long position, @NotNull ByteBuffer... buffers) throws IOException;
+
+  /**
+   * @return current length of the file in bytes
+   */
+  public abstract long size() throws IOException;
+
+  protected void writeInternal(@NotNull long[] positions, @NotNull ByteBuffer[][] runs) throws IOException {
+    for (int i = 0; i < runs.length; i++) {
+      writeInternal(positions[i], runs[i]);
+    }
+  }
+
+  /**
+   * @return true if every write already reaches the disk without forcing it
+   */
+  protected boolean isSynchronous() {
+    return false;
+  }
+
+  /**
+   * Writes the same block a number of times in a row with a single write.
+   * Forces bytes to the disk like {@link #write(long, byte[])} does.
+   * @param position position of the first block
+   * @param block    repeated block
+   * @param count    amount of blocks
+   */
+  public void fill(long position, @NotNull byte[] block, int count) throws IOException {
+    final byte[] image = new byte[block.length * count];
+    for (int i = 0; i < count; i++) {
+      System.arraycopy(block, 0, image, i * block.length, block.length);
+    }
+
+    write(position, image);
+  }
+
+  /**
+   * Forces all written bytes to the disk.
+   */
+  public void force() throws IOException {
+    forceInternal();
+    lastForce = System.currentTimeMillis();
+  }
+
+  protected abstract void forceInternal() throws IOException;
+
+  /**
+   * Releases the file. Bytes are forced before that unless {@link #durability} is {@link Durability#NONE}.
+   */
+  public void close() throws IOException {
+    if (durability != Durability.NONE) {
+      force();
+    }
+    closeInternal();
+  }
+
+  protected abstract void closeInternal() throws IOException;
+
+}
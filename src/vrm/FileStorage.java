@@ -0,0 +1,99 @@
+package vrm;
+
+import java.io.EOFException;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import vrm.annotations.NotNull;
+
+/**
+ * {@link ExternalStorage} that reads/writes a {@link RandomAccessFile} at explicit positions through its
+ * {@link FileChannel}, so it's safe to use from multiple threads.
+ * {@link Durability#ALWAYS} opens the file in "rwd" mode so every write is synchronous.
+ */
+class FileStorage extends ExternalStorage {
+
+  private final RandomAccessFile raf;
+  private final FileChannel channel;
+
+  FileStorage(@NotNull String path, @NotNull Durability durability) throws FileNotFoundException {
+    super(durability);
+    raf = new RandomAccessFile(path, durability == Durability.ALWAYS ? "rwd" : "rw");
+    channel = raf.getChannel();
+  }
+
+  /**
+   * Positional reads (pread), one per buffer, straight into the buffers. The channel's position isn't used, so
+   * concurrent reads don't interfere. {@link FileChannel} has no positional scatter read.
+   */
+  @Override
+  public void read(long position, @NotNull ByteBuffer... buffers) throws IOException {
+    long offset = position;
+    for (ByteBuffer buffer : buffers) {
+      // A single call may read less than requested
+      while (buffer.hasRemaining()) {
+        final int read = channel.read(buffer, offset);
+        if (read == -1) {
+          throw new EOFException(String.format("External memory file ended before position %d!", offset));
+        }
+        offset += read;
+      }
+    }
+  }
+
+  /**
+   * Positional writes (pwrite), one per buffer, straight from the buffers.
+   */
+  @Override
+  protected void writeInternal(long position, @NotNull ByteBuffer... buffers) throws IOException {
+    long offset = position;
+    for (ByteBuffer buffer : buffers) {
+      // A single call may write less than requested
+      while (buffer.hasRemaining()) {
+        offset += channel.write(buffer, offset);
+      }
+    }
+  }
+
+  @Override
+  public long size() throws IOException {
+    return channel.size();
+  }
+
+  @Override
+  protected boolean isSynchronous() {
+    // "rwd"
+    return durability == Durability.ALWAYS;
+  }
+
+  /**
+   * Blocks of zero bytes are filled sparsely: the file is cut at the given position and then extended, so the file
+   * system doesn't have to write (or even allocate) them.
+   */
+  @Override
+  public void fill(long position, @NotNull byte[] block, int count) throws IOException {
+    for (byte b : block) {
+      if (b != 0) {
+        super.fill(position, block, count);
+        return;
+      }
+    }
+
+    raf.setLength(position);
+    raf.setLength(position + (long) block.length * count);
+  }
+
+  @Override
+  protected void forceInternal() throws IOException {
+    // Include metadata, since the length might have changed
+    channel.force(true);
+  }
+
+  @Override
+  protected void closeInternal() throws IOException {
+    raf.close();
+  }
+
+}
@@ -0,0 +1,328 @@
+package vrm;
+
+import java.util.ArrayDeque;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import vrm.annotations.NotNull;
+import vrm.annotations.Nullable;
+
+/**
+ * Orders external memory requests of one or more RMs before they reach the storage. Requests are served one at a time
+ * by a dispatcher thread in the order chosen by a {@link Policy}. Submitters block until their request is served.
+ * <br>
+ * Requests are ordered by their device address, see {@link #address(int, long)}, so requests of different devices
+ * (e.g. RMs) never share an address.
+ */
+public class IoScheduler implements AutoCloseable {
+
+  public enum Policy {
+    /**
+     * In order of submission.
+     */
+    FIFO,
+    /**
+     * Elevator. Serves addresses in ascending order from the last served one, then reverses the direction.
+     */
+    SCAN,
+    /**
+     * {@link #SCAN}, unless a request has waited longer than its deadline: {@link #READ_DEADLINE_NANOS} for reads,
+     * {@link #WRITE_DEADLINE_NANOS} for writes by default. Expired requests are served in order of submission.
+     */
+    DEADLINE
+  }
+
+  /**
+   * Served request. Times are measured with {@link System#nanoTime()}.
+   */
+  public static class Request {
+    public final long address;
+    public final boolean write;
+    private final Runnable operation;
+    private final CompletableFuture<Void> completion = new CompletableFuture<>();
+    private final long submitted = System.nanoTime();
+    private final long deadline;
+    private long started;
+    private long finished;
+
+    private Request(long address, boolean write, @NotNull Runnable operation, long deadlineNanos) {
+      this.address = address;
+      this.write = write;
+      this.operation = operation;
+      deadline = submitted + deadlineNanos;
+    }
+
+    /**
+     * @return time between submission and the start of service
+     */
+    public long getQueueNanos() {
+      return started - submitted;
+    }
+
+    /**
+     * @return time it took to execute the request
+     */
+    public long getServiceNanos() {
+      return finished - started;
+    }
+  }
+
+  public static final long READ_DEADLINE_NANOS = 50_000_000L;
+  public static final long WRITE_DEADLINE_NANOS = 500_000_000L;
+  private static final AtomicInteger SCHEDULER_IDS = new AtomicInteger();
+
+  @NotNull
+  private final Policy policy;
+  private final long readDeadlineNanos;
+  private final long writeDeadlineNanos;
+  /**
+   * Pending requests in order of submission. Used by every policy.
+   */
+  private final LinkedHashSet<Request> fifo = new LinkedHashSet<>();
+  /**
+   * Pending requests by address. Used by {@link Policy#SCAN} and {@link Policy#DEADLINE}.
+   */
+  private final TreeMap<Long, ArrayDeque<Request>> sorted = new TreeMap<>();
+  /**
+   * Address of the last served request.
+   */
+  private long head;
+  private boolean ascending = true;
+  private boolean closed;
+  private final Thread dispatcher;
+
+  @Nullable
+  private volatile Consumer<Request> listener;
+  private final LongAdder served = new LongAdder();
+  private final LongAdder queueNanos = new LongAdder();
+  private final LongAdder serviceNanos = new LongAdder();
+  private final LongAccumulator maxQueueNanos = new LongAccumulator(Math::max, 0);
+  private final LongAdder seekDistance = new LongAdder();
+
+  public IoScheduler(@NotNull Policy policy) {
+    this(policy, READ_DEADLINE_NANOS, WRITE_DEADLINE_NANOS);
+  }
+
+  /**
+   * @param readDeadlineNanos  max queue time of reads before {@link Policy#DEADLINE} serves them out of order
+   * @param writeDeadlineNanos same for writes
+   */
+  public IoScheduler(@NotNull Policy policy, long readDeadlineNanos, long writeDeadlineNanos) {
+    this.policy = policy;
+    this.readDeadlineNanos = readDeadlineNanos;
+    this.writeDeadlineNanos = writeDeadlineNanos;
+    dispatcher = new Thread(this::dispatch, "IoScheduler-" + SCHEDULER_IDS.getAndIncrement());
+    dispatcher.setDaemon(true);
+    dispatcher.start();
+  }
+
+  public Policy getPolicy() {
+    return policy;
+  }
+
+  /**
+   * @param device id of the device, e.g. of the RM whose external memory is accessed
+   * @param block  block on the device, e.g. absolute segment * {@link ExternalMemory#SIZE} + block
+   * @return address of the block that's unique among devices. Blocks of a device are adjacent.
+   */
+  public static long address(int device, long block) {
+    return ((long) device << 32) + block;
+  }
+
+  /**
+   * Receives every served request on the dispatcher thread. E.g. to collect queue and service time distributions.
+   */
+  public void setListener(@Nullable Consumer<Request> listener) {
+    this.listener = listener;
+  }
+
+  /**
+   * Queues a request and blocks until it's served.
+   * @param address   device address used for ordering
+   * @param write     true for writes. Affects {@link Policy#DEADLINE} only.
+   * @param operation accesses the external memory
+   * @throws RuntimeException thrown by the operation
+   */
+  public void execute(long address, boolean write, @NotNull Runnable operation) throws InterruptedException {
+    try {
+      submit(address, write, operation).get();
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw new RuntimeException(e.getCause());
+    }
+  }
+
+  /**
+   * Queues a request without waiting for it.
+   * @return completed once the request is served, exceptionally if the operation throws
+   * @see #execute(long, boolean, Runnable)
+   */
+  public Future<Void> submit(long address, boolean write, @NotNull Runnable operation) {
+    final Request request = new Request(address, write, operation, write ? writeDeadlineNanos : readDeadlineNanos);
+    synchronized (this) {
+      if (closed) {
+        throw new IllegalStateException("I/O scheduler is closed!");
+      }
+      fifo.add(request);
+      sorted.computeIfAbsent(address, a -> new ArrayDeque<>()).add(request);
+      notifyAll();
+    }
+    return request.completion;
+  }
+
+  private void dispatch() {
+    while (true) {
+      final Request request;
+      synchronized (this) {
+        while (fifo.isEmpty() && !closed) {
+          try {
+            wait();
+          } catch (InterruptedException e) {
+            return;
+          }
+        }
+        if (fifo.isEmpty()) return;
+        request = next();
+        remove(request);
+      }
+
+      // Devices are independent, switching between them isn't a seek
+      if (request.address >>> 32 == head >>> 32) {
+        seekDistance.add(Math.abs(request.address - head));
+      }
+      head = request.address;
+
+      request.started = System.nanoTime();
+      RuntimeException exception = null;
+      try {
+        request.operation.run();
+      } catch (RuntimeException e) {
+        exception = e;
+      }
+      request.finished = System.nanoTime();
+
+      // Counted before the submitter resumes, so it sees its own request
+      served.increment();
+      queueNanos.add(request.getQueueNanos());
+      serviceNanos.add(request.getServiceNanos());
+      maxQueueNanos.accumulate(request.getQueueNanos());
+      if (exception == null) {
+        request.completion.complete(null);
+      } else {
+        request.completion.completeExceptionally(exception);
+      }
+
+      final Consumer<Request> listener = this.listener;
+      if (listener != null) {
+        listener.accept(request);
+      }
+    }
+  }
+
+  /**
+   * Picks the next request based on {@link #policy}. Must be called with this locked.
+   */
+  private Request next() {
+    switch (policy) {
+      case DEADLINE:
+        final long now = System.nanoTime();
+        for (Request request : fifo) {
+          if (request.deadline - now <= 0) return request;
+        }
+        return nextScan();
+      case SCAN:
+        return nextScan();
+      default:
+        return fifo.iterator().next();
+    }
+  }
+
+  private Request nextScan() {
+    Map.Entry<Long, ArrayDeque<Request>> entry = ascending ? sorted.ceilingEntry(head) : sorted.floorEntry(head);
+    if (entry == null) {
+      // Nothing left in this direction
+      ascending = !ascending;
+      entry = ascending ? sorted.ceilingEntry(head) : sorted.floorEntry(head);
+    }
+    return entry.getValue().peek();
+  }
+
+  private void remove(@NotNull Request request) {
+    fifo.remove(request);
+    final ArrayDeque<Request> requests = sorted.get(request.address);
+    requests.remove(request);
+    if (requests.isEmpty()) {
+      sorted.remove(request.address);
+    }
+  }
+
+  /**
+   * @return amount of served requests
+   */
+  public long getServedRequests() {
+    return served.sum();
+  }
+
+  /**
+   * @return total time served requests spent waiting in the queue
+   */
+  public long getQueueNanos() {
+    return queueNanos.sum();
+  }
+
+  /**
+   * @return total time spent serving requests
+   */
+  public long getServiceNanos() {
+    return serviceNanos.sum();
+  }
+
+  /**
+   * @return longest time a served request spent waiting in the queue
+   */
+  public long getMaxQueueNanos() {
+    return maxQueueNanos.get();
+  }
+
+  /**
+   * @return sum of address distances between consecutively served requests of the same device
+   */
+  public long getSeekDistance() {
+    return seekDistance.sum();
+  }
+
+  @Override
+  public String toString() {
+    final long served = getServedRequests();
+    return String.format("%s: %d requests, avg queue %.1f us (max %.1f us), avg service %.1f us, avg seek %.1f blocks",
+        policy, served, served == 0 ? 0 : getQueueNanos() / 1e3 / served, getMaxQueueNanos() / 1e3,
+        served == 0 ? 0 : getServiceNanos() / 1e3 / served, served == 0 ? 0 : (double) getSeekDistance() / served);
+  }
+
+  /**
+   * Serves the queued requests and stops the dispatcher. Further requests are refused.
+   * When interrupted, returns without waiting for the queued requests. The dispatcher still serves them.
+   */
+  @Override
+  public void close() {
+    synchronized (this) {
+      closed = true;
+      notifyAll();
+    }
+    try {
+      dispatcher.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+}
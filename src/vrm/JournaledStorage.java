@@ -0,0 +1,186 @@
+package vrm;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+import vrm.annotations.NotNull;
+
+/**
+ * {@link ExternalStorage} that makes writes of another storage crash consistent with an append-only write-ahead
+ * journal ({@link Durability#JOURNALED}).
+ * <br>
+ * Every write appends one record per run to the journal and forces the journal once. The bytes are then written to
+ * the target storage without forcing it. A checkpoint forces the target and empties the journal. It's done when the
+ * journal grows past {@link #CHECKPOINT_BYTES}, on {@link #force()} and on close.
+ * <br>
+ * Record layout: position (8 bytes), length (4 bytes), bytes, CRC32 of all the previous (4 bytes).
+ * When opened, valid records are replayed into the target. Replay stops at the first torn or corrupted record, since
+ * records after it were never acknowledged.
+ * <br>
+ * Writes, fills and checkpoints are mutually exclusive. A checkpoint between appending a record and applying it would
+ * drop an acknowledged record, one between positioning and appending would leave a gap that ends the replay.
+ */
+class JournaledStorage extends ExternalStorage {
+
+  /**
+   * Journal size that triggers a checkpoint.
+   */
+  private static final long CHECKPOINT_BYTES = 1 << 20;
+  private static final int RECORD_HEADER_SIZE = 8 + 4;
+  private static final int RECORD_CHECKSUM_SIZE = 4;
+
+  private final ExternalStorage target;
+  private final File journalFile;
+  private final RandomAccessFile raf;
+  private final FileChannel journal;
+
+  /**
+   * @param target      storage the journaled bytes are applied to. Should not force by itself, i.e. opened with
+   *                    {@link Durability#NONE}.
+   * @param journalPath journal file. Created if missing, replayed otherwise.
+   */
+  JournaledStorage(@NotNull ExternalStorage target, @NotNull String journalPath) throws IOException {
+    super(Durability.JOURNALED);
+    this.target = target;
+    journalFile = new File(journalPath);
+    raf = new RandomAccessFile(journalFile, "rw");
+    journal = raf.getChannel();
+
+    replay();
+  }
+
+  /**
+   * Applies valid journal records to the target and checkpoints.
+   */
+  private void replay() throws IOException {
+    if (journal.size() == 0) return;
+
+    final ByteBuffer content = ByteBuffer.allocate((int) journal.size());
+    journal.position(0);
+    while (content.hasRemaining() && journal.read(content) != -1) ;
+    content.flip();
+
+    final CRC32 crc = new CRC32();
+    while (content.remaining() >= RECORD_HEADER_SIZE + RECORD_CHECKSUM_SIZE) {
+      final int start = content.position();
+      final long position = content.getLong();
+      final int length = content.getInt();
+      if (length < 0 || content.remaining() < length + RECORD_CHECKSUM_SIZE) break;
+
+      // Verify the checksum of the whole record
+      final ByteBuffer record = content.duplicate();
+      record.position(start).limit(start + RECORD_HEADER_SIZE + length);
+      crc.reset();
+      crc.update(record);
+      content.position(start + RECORD_HEADER_SIZE + length);
+      if ((int) crc.getValue() != content.getInt()) break;
+
+      final ByteBuffer bytes = content.duplicate();
+      bytes.position(start + RECORD_HEADER_SIZE).limit(start + RECORD_HEADER_SIZE + length);
+      target.writeInternal(position, bytes);
+    }
+
+    checkpoint();
+  }
+
+  /**
+   * Forces the target and empties the journal.
+   */
+  private synchronized void checkpoint() throws IOException {
+    target.force();
+    journal.truncate(0);
+    journal.force(true);
+  }
+
+  @Override
+  public void read(long position, @NotNull ByteBuffer... buffers) throws IOException {
+    // Target is always up to date, only its durability lags behind
+    target.read(position, buffers);
+  }
+
+  @Override
+  protected void writeInternal(long position, @NotNull ByteBuffer... buffers) throws IOException {
+    writeInternal(new long[] { position }, new ByteBuffer[][] { buffers });
+  }
+
+  @Override
+  protected synchronized void writeInternal(@NotNull long[] positions, @NotNull ByteBuffer[][] runs) throws IOException {
+    // Append a record for every run with a single gather write
+    final ByteBuffer[] records = new ByteBuffer[runs.length * 3];
+    final CRC32 crc = new CRC32();
+    for (int i = 0; i < runs.length; i++) {
+      int length = 0;
+      for (ByteBuffer buffer : runs[i]) {
+        length += buffer.remaining();
+      }
+
+      final ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+      header.putLong(positions[i]).putInt(length).flip();
+      final ByteBuffer body = ByteBuffer.allocate(length);
+      for (ByteBuffer buffer : runs[i]) {
+        body.put(buffer.duplicate());
+      }
+      body.flip();
+
+      crc.reset();
+      crc.update(header.duplicate());
+      crc.update(body.duplicate());
+      final ByteBuffer checksum = ByteBuffer.allocate(RECORD_CHECKSUM_SIZE);
+      checksum.putInt((int) crc.getValue()).flip();
+
+      records[i * 3] = header;
+      records[i * 3 + 1] = body;
+      records[i * 3 + 2] = checksum;
+    }
+
+    journal.position(journal.size());
+    while (records[records.length - 1].hasRemaining()) {
+      journal.write(records);
+    }
+
+    // Group commit: a single sync for every run. Data only, the journal is truncated at checkpoints anyway.
+    journal.force(false);
+
+    // Records are durable, the target may catch up lazily
+    target.writeInternal(positions, runs);
+
+    if (journal.size() >= CHECKPOINT_BYTES) {
+      checkpoint();
+    }
+  }
+
+  @Override
+  public long size() throws IOException {
+    return target.size();
+  }
+
+  /**
+   * Fills are too large to journal. Everything journaled so far is checkpointed first, so a replay can't overwrite the
+   * filled blocks with older records.
+   */
+  @Override
+  public synchronized void fill(long position, @NotNull byte[] block, int count) throws IOException {
+    checkpoint();
+    target.fill(position, block, count);
+  }
+
+  @Override
+  protected void forceInternal() throws IOException {
+    checkpoint();
+  }
+
+  @Override
+  protected synchronized void closeInternal() throws IOException {
+    target.close();
+    raf.close();
+
+    // Journal was emptied by the final checkpoint
+    if (!journalFile.delete()) {
+      throw new IOException("Couldn't delete journal " + journalFile);
+    }
+  }
+
+}
@@ -1,6 +1,9 @@
 package vrm;
 
-import com.sun.istack.internal.Nullable;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import vrm.annotations.NotNull;
+import vrm.annotations.Nullable;
 
 /**
  * Keyboard model. Used to read input.
@@ -10,8 +13,23 @@ public class Keyboard implements Channel {
   @Nullable
   public Word word;
 
+  /**
+   * Words fed in advance. Consumed once {@link #word} is empty.
+   */
+  private final Queue<Word> input = new ArrayDeque<>();
+
+  /**
+   * Queues words to be read after the current {@link #word}.
+   */
+  public void feed(@NotNull Word... words) {
+    for (Word word : words) {
+      input.add(word);
+    }
+  }
+
+  @Nullable
   public Word read() {
-    final Word word = this.word;
+    final Word word = (this.word == null) ? input.poll() : this.word;
 
     // Consume word
     this.word = null;
@@ -19,6 +37,14 @@ public class Keyboard implements Channel {
     return word;
   }
 
+  /**
+   * Drops the current and all fed words.
+   */
+  public void clear() {
+    word = null;
+    input.clear();
+  }
+
   @Override
   public int getIndex() {
     return 1;
@@ -0,0 +1,146 @@
+package vrm;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import vrm.jobs.Job;
+
+/**
+ * Command-line entry point that executes a single program without a UI:
+ * <pre>
+ * java vrm.Launcher [-i WORD]... [-l LIMIT] [-e FILE] [--log FILE] [--profile FILE] [--profile-interval N] [PROGRAM]
+ * </pre>
+ * <ul>
+ *   <li>PROGRAM - program image with a single word per line. The default (fibonacci) program is executed when omitted.</li>
+ *   <li>-i, --input WORD - keyboard input word. May be repeated, words are read in order.</li>
+ *   <li>-l, --limit LIMIT - max amount of executed instructions or 0 for no limit. Defaults to {@link Job#DEFAULT_INSTRUCTION_LIMIT}.</li>
+ *   <li>-e, --external FILE - external memory file. Defaults to {@link RealMachine#EXTERNAL_MEMORY_PATH}.</li>
+ *   <li>--log FILE - appends every executed command to the given file.</li>
+ *   <li>--profile FILE - samples executed instructions, writes them to the given file as collapsed stacks and prints the
+ *   hottest addresses and basic blocks. See {@link Profiler}.</li>
+ *   <li>--profile-interval N - sample one in N instructions. Defaults to {@link Profiler#DEFAULT_INTERVAL}.</li>
+ * </ul>
+ * Every word the program writes to the screen (PD) is printed on its own line as it's written, followed by a summary
+ * line once the program stops.
+ * <br>
+ * Exits with 0 when the program halts, 1 when the instruction limit is reached and 2 on invalid arguments.
+ */
+public class Launcher {
+
+  private static final String USAGE = "Usage: java vrm.Launcher [-i WORD]... [-l LIMIT] [-e FILE] [--log FILE] [--profile FILE] [--profile-interval N] [PROGRAM]"
+      + System.lineSeparator() + "Prints every screen word on its own line, then a summary.";
+
+  /**
+   * Private c-tor.
+   */
+  private Launcher() {}
+
+  public static void main(String[] args) throws InterruptedException, IOException {
+    final List<String> input = new ArrayList<>();
+    long limit = Job.DEFAULT_INSTRUCTION_LIMIT;
+    String externalMemoryPath = RealMachine.EXTERNAL_MEMORY_PATH;
+    File log = null;
+    File profile = null;
+    int profileInterval = Profiler.DEFAULT_INTERVAL;
+    String program = null;
+
+    for (int i = 0; i < args.length; i++) {
+      switch (args[i]) {
+        case "-i":
+        case "--input":
+          input.add(value(args, ++i));
+          break;
+        case "-l":
+        case "--limit":
+          limit = Long.parseLong(value(args, ++i));
+          break;
+        case "-e":
+        case "--external":
+          externalMemoryPath = value(args, ++i);
+          break;
+        case "--log":
+          log = new File(value(args, ++i));
+          break;
+        case "--profile":
+          profile = new File(value(args, ++i));
+          break;
+        case "--profile-interval":
+          profileInterval = Integer.parseInt(value(args, ++i));
+          break;
+        case "-h":
+        case "--help":
+          System.out.println(USAGE);
+          return;
+        default:
+          if (program != null || args[i].startsWith("-")) {
+            exit("Unexpected argument: " + args[i]);
+          }
+          program = args[i];
+      }
+    }
+
+    final List<String> words = (program == null)
+        ? Arrays.asList(VRM.getDefaultProgram())
+        : Job.fromFile(Paths.get(program)).program;
+    final Job job = new Job(words, input, limit);
+
+    final VRM vrm = new VRM(null, externalMemoryPath);
+    vrm.realMachine.stepping = false;
+    // Creates the external memory file
+    vrm.reset();
+    if (log != null) {
+      vrm.commandLog.setSpillFile(log);
+    }
+    final Profiler profiler = (profile == null) ? null : new Profiler(profileInterval);
+    vrm.setProfiler(profiler);
+
+    vrm.realMachine.screen.setListener(System.out::println);
+    for (String word : job.input) {
+      vrm.realMachine.keyboard.feed(Utils.toWord(word));
+    }
+
+    final long start = System.nanoTime();
+    try {
+      vrm.load(job.program.toArray(new String[0]));
+      vrm.run(job.instructionLimit);
+    } finally {
+      vrm.commandLog.setSpillFile(null);
+      vrm.realMachine.screen.setListener(null);
+      vrm.realMachine.close();
+    }
+    final long nanos = System.nanoTime() - start;
+
+    final long instructions = vrm.realMachine.instructions;
+    System.out.printf("%s after %d instructions in %.3f ms (%.3f MIPS)%n",
+        vrm.realMachine.halted ? "Halted" : "Instruction limit reached", instructions, nanos / 1e6,
+        instructions * 1e3 / nanos);
+
+    if (profiler != null) {
+      try (Writer writer = new FileWriter(profile)) {
+        profiler.writeCollapsed(writer);
+      }
+      System.out.println();
+      System.out.print(profiler.report(10));
+    }
+    System.exit(vrm.realMachine.halted ? 0 : 1);
+  }
+
+  private static String value(String[] args, int index) {
+    if (index >= args.length) {
+      exit("Missing value for " + args[index - 1]);
+    }
+    return args[index];
+  }
+
+  private static void exit(String message) {
+    System.err.println(message);
+    System.err.println(USAGE);
+    System.exit(2);
+  }
+
+}
@@ -1,6 +1,5 @@
 package vrm;
 
-import javafx.collections.ObservableList;
 import vrm.exceptions.MemoryOutOfBoundsException;
 import vrm.exceptions.NumberOverflowException;
 import vrm.exceptions.UnhandledCommandException;
@@ -22,9 +21,9 @@ public abstract class Machine {
    */
   public final Memory memory;
   /**
-   * List containing all executed commands. This is managed for UI purposes only.
+   * Log of executed commands. This is managed for UI purposes only.
    */
-  protected final ObservableList<String> commandLog;
+  protected final CommandLog commandLog;
 
   /**
    * Temporary. Size word.
@@ -35,11 +34,26 @@ public abstract class Machine {
    */
   public Comparison C = Comparison.EQUAL;
 
-  protected Machine(ObservableList<String> commandLog, Memory memory) {
+  protected Machine(CommandLog commandLog, Memory memory) {
     this.commandLog = commandLog;
     this.memory = memory;
   }
 
+  /**
+   * Whether this machine pauses between steps until {@link VRM#forward()} is called.
+   * When false, the machine runs freely.
+   */
+  protected abstract boolean isStepping();
+
+  /**
+   * Convenience method that synchronizes a {@link #wait()} command.
+   * Returns immediately when the machine isn't {@link #isStepping() stepping}.
+   */
+  public synchronized void doWait() throws InterruptedException {
+    if (!isStepping()) return;
+    wait();
+  }
+
   /**
    * Execute a specific command in this machine.
    * @param command  command to be executed
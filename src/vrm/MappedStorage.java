@@ -0,0 +1,95 @@
+package vrm;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import vrm.annotations.NotNull;
+
+/**
+ * {@link ExternalStorage} that maps the whole file into memory, so reads and writes are plain memory copies.
+ * Only the existing length of the file is mapped. A write past the end maps the file again with the larger size,
+ * which extends the file.
+ */
+class MappedStorage extends ExternalStorage {
+
+  private final RandomAccessFile raf;
+  private final FileChannel channel;
+  /**
+   * Replaced when the file grows. Older mappings stay valid, so readers that still use one see the same bytes.
+   */
+  private volatile MappedByteBuffer buffer;
+
+  MappedStorage(@NotNull String path, @NotNull Durability durability) throws IOException {
+    super(durability);
+    raf = new RandomAccessFile(path, "rw");
+    channel = raf.getChannel();
+    buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+  }
+
+  @Override
+  public void read(long position, @NotNull ByteBuffer... buffers) throws IOException {
+    // Duplicates share content but not the position
+    final ByteBuffer view = buffer.duplicate();
+    if (position + remaining(buffers) > view.capacity()) {
+      throw new EOFException(String.format("External memory file ended before position %d!", view.capacity()));
+    }
+
+    view.position((int) position);
+    for (ByteBuffer destination : buffers) {
+      view.limit(view.position() + destination.remaining());
+      destination.put(view);
+    }
+  }
+
+  @Override
+  protected void writeInternal(long position, @NotNull ByteBuffer... buffers) throws IOException {
+    final ByteBuffer view = grow(position + remaining(buffers)).duplicate();
+    view.position((int) position);
+    for (ByteBuffer source : buffers) {
+      view.put(source);
+    }
+  }
+
+  /**
+   * Maps the file again if it's shorter than the given size. Writes are serialized by the callers, so the mapping is
+   * never replaced concurrently.
+   * @return mapping of at least the given size
+   */
+  private MappedByteBuffer grow(long size) throws IOException {
+    MappedByteBuffer buffer = this.buffer;
+    if (size > buffer.capacity()) {
+      // Both mappings share the page cache, so bytes written through the old one aren't lost
+      buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+      this.buffer = buffer;
+    }
+    return buffer;
+  }
+
+  private static long remaining(@NotNull ByteBuffer[] buffers) {
+    long remaining = 0;
+    for (ByteBuffer buffer : buffers) {
+      remaining += buffer.remaining();
+    }
+    return remaining;
+  }
+
+  @Override
+  public long size() {
+    return buffer.capacity();
+  }
+
+  @Override
+  protected void forceInternal() throws IOException {
+    buffer.force();
+  }
+
+  @Override
+  protected void closeInternal() throws IOException {
+    // Mapping stays valid until it's garbage collected
+    raf.close();
+  }
+
+}
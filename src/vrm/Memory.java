@@ -1,12 +1,12 @@
 package vrm;
 
-import com.sun.istack.internal.NotNull;
-import com.sun.istack.internal.Nullable;
-
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Spliterator;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.function.Consumer;
+import vrm.annotations.NotNull;
+import vrm.annotations.Nullable;
 import vrm.exceptions.MemoryOutOfBoundsException;
 
 /**
@@ -14,7 +14,29 @@ import vrm.exceptions.MemoryOutOfBoundsException;
  */
 public class Memory implements Iterable<Word> {
 
+  /**
+   * Receives notifications about modified blocks of a root memory.
+   */
+  public interface Listener {
+    /**
+     * Called on the modifying thread.
+     * @param block index of the modified block (10 words) in the root memory
+     */
+    void onBlockChanged(int block);
+  }
+
   private final List<Word> words;
+  /**
+   * Memory this one was derived from with {@link #sublist(int, int)} or {@link #combine(Memory, Memory)}. Itself for
+   * memories created with {@link #Memory(int)}.
+   */
+  private final Memory root;
+  /**
+   * Index of every word in the {@link #root} memory or null if this is the root.
+   */
+  @Nullable
+  private final int[] rootIndexes;
+  private final List<Listener> listeners;
 
   /**
    * Create a memory with given amount of words.
@@ -29,13 +51,54 @@ public class Memory implements Iterable<Word> {
     for (int i = 0; i < size; i++) {
       words.add(new Word());
     }
+    root = this;
+    rootIndexes = null;
+    listeners = new CopyOnWriteArrayList<>();
   }
 
   /**
    * Create Memory from a given list of words. Private constructor to prevent modification of underlying words outside.
    */
-  private Memory(@NotNull List<Word> words) {
+  private Memory(@NotNull List<Word> words, @NotNull Memory root, @NotNull int[] rootIndexes) {
     this.words = words;
+    this.root = root;
+    this.rootIndexes = rootIndexes;
+    listeners = root.listeners;
+  }
+
+  /**
+   * Listeners are shared by the root memory and all memories derived from it.
+   */
+  public void addListener(@NotNull Listener listener) {
+    listeners.add(listener);
+  }
+
+  public void removeListener(@NotNull Listener listener) {
+    listeners.remove(listener);
+  }
+
+  /**
+   * Notifies listeners about words that were modified in place, e.g. by reading external memory straight into them.
+   * Modifications made by {@link #replace} methods are notified automatically.
+   * @param start first modified word
+   * @param count amount of modified words
+   */
+  public void changed(int start, int count) {
+    if (listeners.isEmpty()) return;
+
+    int lastBlock = -1;
+    for (int i = start; i < start + count; i++) {
+      final int block = getRootIndex(i) / 10;
+      if (block == lastBlock) continue;
+      lastBlock = block;
+      for (Listener listener : listeners) {
+        listener.onBlockChanged(block);
+      }
+    }
+  }
+
+  private int getRootIndex(int index) {
+    return (rootIndexes == null) ? index : rootIndexes[index];
   }
 
   /**
@@ -77,6 +140,7 @@ public class Memory implements Iterable<Word> {
    */
   public void replace(int index, String word) throws MemoryOutOfBoundsException {
     get(index).replace(word);
+    changed(index, 1);
   }
 
   /**
@@ -88,6 +152,7 @@ public class Memory implements Iterable<Word> {
   public void replace(int index, @Nullable Word word) throws MemoryOutOfBoundsException {
     final String replacement = (word == null) ? "00000" : word.toString();
     get(index).replace(replacement);
+    changed(index, 1);
   }
 
   /**
@@ -97,9 +162,11 @@ public class Memory implements Iterable<Word> {
    * @throws MemoryOutOfBoundsException when referring to a word outside the given memory block
    */
   public void replace(int index, @NotNull String... words) throws MemoryOutOfBoundsException {
+    final int start = index;
     for (String word : words) {
       get(index++).replace(word);
     }
+    changed(start, words.length);
   }
 
   /**
@@ -109,9 +176,21 @@ public class Memory implements Iterable<Word> {
    * @throws MemoryOutOfBoundsException when referring to a word outside the given memory block
    */
   public void replace(int index, @NotNull Word... words) throws MemoryOutOfBoundsException {
+    final int start = index;
     for (Word word : words) {
       get(index++).replace(word.toString());
     }
+    changed(start, words.length);
+  }
+
+  /**
+   * Fills every word with zeroes.
+   */
+  public void clear() {
+    for (Word word : words) {
+      word.replace("00000");
+    }
+    changed(0, words.size());
   }
 
   /**
@@ -121,16 +200,29 @@ public class Memory implements Iterable<Word> {
    * @return memory sublist.
    */
   public Memory sublist(int from, int to) {
-    return new Memory(words.subList(from, to));
+    final int[] indexes = new int[to - from];
+    for (int i = 0; i < indexes.length; i++) {
+      indexes[i] = getRootIndex(from + i);
+    }
+    return new Memory(words.subList(from, to), root, indexes);
   }
 
   /**
    * Combines two memories without losing references.
+   * @throws IllegalArgumentException when the memories weren't derived from the same root memory
    */
   public static Memory combine(Memory memory1, Memory memory2) {
+    if (memory1.root != memory2.root) {
+      throw new IllegalArgumentException("Only memories of the same root memory can be combined!");
+    }
+
     List<Word> words = new ArrayList<>(memory1.words);
     words.addAll(memory2.words);
-    return new Memory(words);
+    final int[] indexes = new int[words.size()];
+    for (int i = 0; i < indexes.length; i++) {
+      indexes[i] = (i < memory1.size()) ? memory1.getRootIndex(i) : memory2.getRootIndex(i - memory1.size());
+    }
+    return new Memory(words, memory1.root, indexes);
   }
 
   /* Iterable<Word> */
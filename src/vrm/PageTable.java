@@ -1,6 +1,6 @@
 package vrm;
 
-import com.sun.istack.internal.NotNull;
+import vrm.annotations.NotNull;
 
 /**
  * Convenience class to wrap int[] and Word[] as a page table.
@@ -0,0 +1,362 @@
+package vrm;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import vrm.annotations.NotNull;
+
+/**
+ * Guest-level sampling profiler. Every {@link #getInterval()}-th executed instruction the (machine, IC) pair is
+ * recorded, so the cost between samples is a single counter decrement. Samples are aggregated into hot addresses and
+ * hot basic blocks and can be exported as collapsed stacks ({@code machine;block;address command count}) for flame
+ * graph tools.
+ * <br>
+ * Basic blocks are found in the machine's code when it's first sampled (or {@link #loaded(Machine) loaded}): a block
+ * starts at 0, at every jump target and after every jump, trap (HALT, I/O, STVM, ...) or non-instruction word.
+ * <br>
+ * Attach with {@link VRM#setProfiler(Profiler)}. Samples are taken on the VRM thread, reports may be read from any
+ * thread.
+ */
+public class Profiler {
+
+  /**
+   * Default sampling interval. Prime, so it doesn't alias with the length of guest loops.
+   */
+  public static final int DEFAULT_INTERVAL = 97;
+
+  /**
+   * Sampled address with its aggregated count.
+   */
+  public static class Entry {
+    /**
+     * Sampled machine, e.g. VM0 or RM0.
+     */
+    public final String machine;
+    /**
+     * First (or only) address.
+     */
+    public final int start;
+    /**
+     * Last address, inclusive. Equal to {@link #start} for addresses.
+     */
+    public final int end;
+    /**
+     * Decoded command at {@link #start}. For blocks, the commands of the whole block separated by "; ".
+     */
+    public final String code;
+    public final long samples;
+
+    private Entry(String machine, int start, int end, String code, long samples) {
+      this.machine = machine;
+      this.start = start;
+      this.end = end;
+      this.code = code;
+      this.samples = samples;
+    }
+
+    @Override
+    public String toString() {
+      final String address = (start == end) ? format(start) : format(start) + "-" + format(end);
+      return String.format("%s %s %d %s", machine, address, samples, code);
+    }
+  }
+
+  /**
+   * Code of a sampled machine: decoded commands by address (null for words that aren't instructions) and basic block
+   * leaders.
+   */
+  private static class Code {
+    final Command[] commands;
+    final BitSet leaders = new BitSet();
+
+    Code(Memory memory) {
+      commands = new Command[memory.size()];
+      for (int i = 0; i < commands.length; i++) {
+        try {
+          commands[i] = Command.parse(memory.get(i));
+        } catch (Exception ignored) {
+          // Data
+        }
+      }
+
+      leaders.set(0);
+      for (int i = 0; i < commands.length; i++) {
+        final Command command = commands[i];
+        if (command == null || endsBlock(command.type)) {
+          leaders.set(i + 1);
+        }
+        if (command != null && isJump(command.type) && command.getArgument() < commands.length) {
+          leaders.set(command.getArgument());
+        }
+      }
+    }
+
+    int blockStart(int address) {
+      return leaders.previousSetBit(address);
+    }
+
+    int blockEnd(int address) {
+      final int next = leaders.nextSetBit(address + 1);
+      return (next == -1 || next > commands.length) ? commands.length - 1 : next - 1;
+    }
+
+    private static boolean isJump(Command.Type type) {
+      return type == Command.Type.JP || type == Command.Type.JE || type == Command.Type.JL || type == Command.Type.JM;
+    }
+
+    /**
+     * Jumps and commands that leave the machine (traps to the RM, VM switches, HALT).
+     */
+    private static boolean endsBlock(Command.Type type) {
+      switch (type) {
+        case JP: case JE: case JL: case JM:
+        case HALT: case GD: case PD: case RD: case WD: case SD: case RB: case WB: case SS:
+        case STVM: case SVRG: case LDRG:
+          return true;
+        default:
+          return false;
+      }
+    }
+  }
+
+  private final int interval;
+  /**
+   * Instructions left until the next sample. Updated by the VRM thread only.
+   */
+  private int countdown;
+  private long instructions;
+  private long samples;
+  /**
+   * Samples by machine and address.
+   */
+  private final Map<String, TreeMap<Integer, long[]>> hits = new HashMap<>();
+  /**
+   * Latest sampled command text by machine and address.
+   */
+  private final Map<String, Map<Integer, String>> commands = new HashMap<>();
+  private final Map<String, Code> codes = new HashMap<>();
+
+  public Profiler() {
+    this(DEFAULT_INTERVAL);
+  }
+
+  /**
+   * @param interval one in this many instructions is sampled
+   */
+  public Profiler(int interval) {
+    if (interval <= 0) {
+      throw new IllegalArgumentException("Invalid sampling interval: " + interval);
+    }
+
+    this.interval = interval;
+    countdown = interval;
+  }
+
+  public int getInterval() {
+    return interval;
+  }
+
+  /**
+   * Called for every executed instruction.
+   * @param machine machine whose IC pointed to the instruction
+   * @param address IC of the instruction
+   */
+  void instruction(@NotNull Machine machine, int address) {
+    if (--countdown > 0) return;
+    countdown = interval;
+    sample(machine, address);
+  }
+
+  private synchronized void sample(Machine machine, int address) {
+    instructions += interval;
+    samples++;
+
+    final String name = machine.toString();
+    hits.computeIfAbsent(name, key -> new TreeMap<>()).computeIfAbsent(address, key -> new long[1])[0]++;
+    commands.computeIfAbsent(name, key -> new HashMap<>()).put(address, decode(machine.memory, address));
+    if (!codes.containsKey(name)) {
+      codes.put(name, new Code(machine.memory));
+    }
+  }
+
+  /**
+   * Called when a new program is stored in the machine's memory, so its basic blocks are found again.
+   */
+  synchronized void loaded(@NotNull Machine machine) {
+    codes.put(machine.toString(), new Code(machine.memory));
+  }
+
+  /**
+   * @return command at the address, the raw word if it isn't a command or "?" if the address is invalid
+   */
+  private static String decode(Memory memory, int address) {
+    final Word word;
+    try {
+      word = memory.get(address);
+    } catch (Exception e) {
+      return "?";
+    }
+
+    try {
+      return Command.parse(word).toString();
+    } catch (Exception e) {
+      return word.toString().trim();
+    }
+  }
+
+  private static String format(int address) {
+    return Utils.precedeZeroes(address, 3);
+  }
+
+  /**
+   * @return estimated amount of executed instructions (samples * interval)
+   */
+  public synchronized long getInstructions() {
+    return instructions;
+  }
+
+  public synchronized long getSamples() {
+    return samples;
+  }
+
+  /**
+   * @param limit max amount of entries
+   * @return most sampled addresses, hottest first
+   */
+  public synchronized List<Entry> getHotAddresses(int limit) {
+    final List<Entry> entries = new ArrayList<>();
+    for (Map.Entry<String, TreeMap<Integer, long[]>> machine : hits.entrySet()) {
+      for (Map.Entry<Integer, long[]> address : machine.getValue().entrySet()) {
+        entries.add(new Entry(machine.getKey(), address.getKey(), address.getKey(),
+            getCommand(machine.getKey(), address.getKey()), address.getValue()[0]));
+      }
+    }
+    return top(entries, limit);
+  }
+
+  /**
+   * @param limit max amount of entries
+   * @return basic blocks with the most samples, hottest first
+   */
+  public synchronized List<Entry> getHotBlocks(int limit) {
+    final List<Entry> entries = new ArrayList<>();
+    for (Map.Entry<String, TreeMap<Integer, long[]>> machine : hits.entrySet()) {
+      final String name = machine.getKey();
+      final Code code = codes.get(name);
+
+      // Addresses are sorted, so the addresses of a block are adjacent
+      int blockStart = -1, blockEnd = -1;
+      long blockSamples = 0;
+      for (Map.Entry<Integer, long[]> address : machine.getValue().entrySet()) {
+        if (address.getKey() > blockEnd) {
+          if (blockStart != -1) {
+            entries.add(new Entry(name, blockStart, blockEnd, getBlockCode(name, blockStart, blockEnd), blockSamples));
+          }
+          blockStart = code.blockStart(address.getKey());
+          blockEnd = code.blockEnd(address.getKey());
+          blockSamples = 0;
+        }
+        blockSamples += address.getValue()[0];
+      }
+      if (blockStart != -1) {
+        entries.add(new Entry(name, blockStart, blockEnd, getBlockCode(name, blockStart, blockEnd), blockSamples));
+      }
+    }
+    return top(entries, limit);
+  }
+
+  private static List<Entry> top(List<Entry> entries, int limit) {
+    entries.sort(Comparator.comparingLong((Entry entry) -> entry.samples).reversed()
+        .thenComparing(entry -> entry.machine).thenComparingInt(entry -> entry.start));
+    return (entries.size() > limit) ? new ArrayList<>(entries.subList(0, limit)) : entries;
+  }
+
+  /**
+   * @return latest sampled command text at the address or the decoded code if it wasn't sampled
+   */
+  private String getCommand(String machine, int address) {
+    final String sampled = commands.get(machine).get(address);
+    if (sampled != null) return sampled;
+
+    final Code code = codes.get(machine);
+    final Command command = (code == null) ? null : code.commands[address];
+    return (command == null) ? "?" : command.toString();
+  }
+
+  private String getBlockCode(String machine, int start, int end) {
+    final StringBuilder builder = new StringBuilder();
+    for (int address = start; address <= end; address++) {
+      if (builder.length() > 0) {
+        builder.append("; ");
+      }
+      builder.append(getCommand(machine, address));
+    }
+    return builder.toString();
+  }
+
+  /**
+   * Writes every sampled address as a collapsed stack: machine, basic block and address with its command, followed by
+   * the sample count. E.g. {@code VM0;000-003;001 AD011 42}.
+   */
+  public synchronized void writeCollapsed(@NotNull Writer writer) throws IOException {
+    for (Map.Entry<String, TreeMap<Integer, long[]>> machine : new TreeMap<>(hits).entrySet()) {
+      final String name = machine.getKey();
+      final Code code = codes.get(name);
+      for (Map.Entry<Integer, long[]> address : machine.getValue().entrySet()) {
+        final int start = code.blockStart(address.getKey());
+        final int end = code.blockEnd(address.getKey());
+        writer.write(String.format("%s;%s-%s;%s %s %d%n", name, format(start), format(end), format(address.getKey()),
+            getCommand(name, address.getKey()), address.getValue()[0]));
+      }
+    }
+    writer.flush();
+  }
+
+  /**
+   * Drops all samples and decoded code.
+   */
+  public synchronized void clear() {
+    hits.clear();
+    commands.clear();
+    codes.clear();
+    instructions = 0;
+    samples = 0;
+    countdown = interval;
+  }
+
+  /**
+   * @param limit max amount of addresses and blocks
+   * @return human readable report of the hottest addresses and blocks
+   */
+  public synchronized String report(int limit) {
+    final StringBuilder builder = new StringBuilder();
+    builder.append(String.format("%d samples, 1 per %d instructions%n", samples, interval));
+
+    builder.append(String.format("%nHot addresses:%n"));
+    for (Entry entry : getHotAddresses(limit)) {
+      builder.append(String.format("%6.2f%% %s%n", percent(entry), entry));
+    }
+
+    builder.append(String.format("%nHot blocks:%n"));
+    for (Entry entry : getHotBlocks(limit)) {
+      builder.append(String.format("%6.2f%% %s%n", percent(entry), entry));
+    }
+    return builder.toString();
+  }
+
+  private double percent(Entry entry) {
+    return (samples == 0) ? 0 : entry.samples * 100.0 / samples;
+  }
+
+  @Override
+  public String toString() {
+    return report(10);
+  }
+
+}
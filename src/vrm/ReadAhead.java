@@ -0,0 +1,248 @@
+package vrm;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import vrm.annotations.NotNull;
+import vrm.annotations.Nullable;
+
+/**
+ * Sequential access detector that asynchronously prefetches the blocks following a stream of reads.
+ * <br>
+ * After {@link #TRIGGER} consecutive reads of adjacent blocks, the next {@link #MIN_WINDOW} blocks are prefetched.
+ * Whenever the reader gets halfway into the prefetched window, the following window is requested and the window size
+ * doubles, up to the max. A non-sequential read resets the window and drops everything prefetched.
+ * <br>
+ * Prefetched blocks are kept until they're read (each one is served once), skipped or {@link #invalidate(int)
+ * invalidated} by a write. Prefetching is best effort: requests that fail or don't fit in the executor's queue are
+ * counted and skipped, the reader then reads those blocks itself.
+ */
+class ReadAhead {
+
+  /**
+   * Reads blocks into {@link #put(int, byte[])}. Called on a prefetch thread.
+   */
+  interface Prefetcher {
+    void prefetch(int start, int count) throws IOException;
+  }
+
+  /**
+   * Amount of adjacent reads that make a stream sequential.
+   */
+  private static final int TRIGGER = 2;
+  private static final int MIN_WINDOW = 4;
+
+  /**
+   * Max amount of prefetch threads shared by all read-aheads.
+   */
+  private static final int THREADS = Math.min(4, Runtime.getRuntime().availableProcessors());
+  /**
+   * Max amount of requests waiting for a prefetch thread. Requests past it are rejected.
+   */
+  private static final int QUEUE_SIZE = 64;
+
+  /**
+   * Shared by all read-aheads. Bounded, so many streams can't pile up threads or requests. Daemon threads that time
+   * out when idle, so they don't keep the JVM alive.
+   */
+  static final Executor EXECUTOR;
+
+  static {
+    final ThreadPoolExecutor executor = new ThreadPoolExecutor(THREADS, THREADS, 30, TimeUnit.SECONDS,
+        new ArrayBlockingQueue<>(QUEUE_SIZE), new ThreadFactory() {
+      private final AtomicInteger ids = new AtomicInteger();
+
+      @Override
+      public Thread newThread(@NotNull Runnable runnable) {
+        final Thread thread = new Thread(runnable, "ExternalMemory-prefetch-" + ids.getAndIncrement());
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+    executor.allowCoreThreadTimeOut(true);
+    EXECUTOR = executor;
+  }
+
+  private final int maxWindow;
+  private final int size;
+  private final Prefetcher prefetcher;
+  private final Executor executor;
+  private final ConcurrentNavigableMap<Integer, byte[]> blocks = new ConcurrentSkipListMap<>();
+
+  /**
+   * Last read block.
+   */
+  private int last = -2;
+  /**
+   * Amount of adjacent reads so far.
+   */
+  private int sequential;
+  private int window;
+  /**
+   * First block that wasn't requested yet.
+   */
+  private int frontier;
+
+  private final LongAdder prefetched = new LongAdder();
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder wasted = new LongAdder();
+  private final LongAdder failures = new LongAdder();
+
+  /**
+   * @param maxWindow  max amount of blocks prefetched at once
+   * @param size       amount of blocks. Nothing past it is prefetched.
+   * @param prefetcher reader of requested blocks
+   * @param executor   runs the prefetcher, e.g. {@link #EXECUTOR}
+   */
+  ReadAhead(int maxWindow, int size, @NotNull Prefetcher prefetcher, @NotNull Executor executor) {
+    if (maxWindow <= 0) {
+      throw new IllegalArgumentException("Invalid read-ahead window: " + maxWindow);
+    }
+
+    this.maxWindow = maxWindow;
+    this.size = size;
+    this.prefetcher = prefetcher;
+    this.executor = executor;
+  }
+
+  /**
+   * Registers a read and requests the next window if the stream is sequential. The request is submitted without
+   * holding this object's lock, so a synchronous executor may prefetch right away.
+   */
+  void access(int block) {
+    final int[] request = advance(block);
+    if (request == null) return;
+
+    final int start = request[0], count = request[1];
+    try {
+      executor.execute(() -> {
+        try {
+          prefetcher.prefetch(start, count);
+        } catch (IOException | RuntimeException e) {
+          // E.g. the file was closed in the meantime
+          failures.increment();
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      failures.increment();
+    }
+  }
+
+  /**
+   * @return start and size of the window to prefetch or null if nothing should be prefetched
+   */
+  @Nullable
+  private synchronized int[] advance(int block) {
+    if (block == last + 1) {
+      sequential++;
+    } else if (block != last) {
+      // Random access
+      sequential = 0;
+      window = 0;
+      frontier = block + 1;
+      discard(blocks);
+    }
+    last = block;
+
+    // Blocks behind the reader won't be read by this stream
+    discard(blocks.headMap(block, true));
+
+    if (sequential < TRIGGER) return null;
+
+    frontier = Math.max(frontier, block + 1);
+    if (window == 0) {
+      window = MIN_WINDOW;
+    } else if (block + window / 2 < frontier) {
+      // Previous window is still ahead
+      return null;
+    } else {
+      window = Math.min(window * 2, maxWindow);
+    }
+
+    final int start = frontier;
+    final int count = Math.min(window, size - start);
+    if (count <= 0) return null;
+
+    frontier += count;
+    return new int[] { start, count };
+  }
+
+  private void discard(@NotNull Map<Integer, byte[]> discarded) {
+    wasted.add(discarded.size());
+    discarded.clear();
+  }
+
+  /**
+   * Stores a prefetched block.
+   */
+  void put(int block, @NotNull byte[] bytes) {
+    blocks.put(block, bytes);
+    prefetched.increment();
+  }
+
+  boolean contains(int block) {
+    return blocks.containsKey(block);
+  }
+
+  /**
+   * Removes a prefetched block.
+   * @return prefetched bytes or null if the block wasn't prefetched
+   */
+  @Nullable
+  byte[] take(int block) {
+    final byte[] bytes = blocks.remove(block);
+    if (bytes != null) {
+      hits.increment();
+    }
+    return bytes;
+  }
+
+  /**
+   * Drops a prefetched block, e.g. because it was modified.
+   */
+  void invalidate(int block) {
+    if (blocks.remove(block) != null) {
+      wasted.increment();
+    }
+  }
+
+  /**
+   * Drops all prefetched blocks and forgets the stream.
+   */
+  synchronized void clear() {
+    discard(blocks);
+    last = -2;
+    sequential = 0;
+    window = 0;
+    frontier = 0;
+  }
+
+  long getPrefetched() {
+    return prefetched.sum();
+  }
+
+  long getHits() {
+    return hits.sum();
+  }
+
+  long getWasted() {
+    return wasted.sum();
+  }
+
+  /**
+   * @return amount of prefetch requests that failed or were rejected by the executor
+   */
+  long getFailures() {
+    return failures.sum();
+  }
+
+}
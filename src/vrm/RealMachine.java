@@ -1,13 +1,14 @@
 package vrm;
 
-import com.sun.istack.internal.NotNull;
-
-import javafx.collections.ObservableList;
+import java.util.concurrent.atomic.AtomicInteger;
+import vrm.annotations.NotNull;
+import vrm.annotations.Nullable;
 import vrm.exceptions.InvalidArgumentsException;
 import vrm.exceptions.InvalidCommandException;
 import vrm.exceptions.MemoryOutOfBoundsException;
 import vrm.exceptions.NumberOverflowException;
 import vrm.exceptions.UnhandledCommandException;
+import vrm.exceptions.UnrepresentableWordException;
 
 /**
  * Created by Simas on 2017 Mar 04.
@@ -35,7 +36,10 @@ public class RealMachine extends Machine {
     RD(Command.Type.RD),
     WD(Command.Type.WD),
     SD(Command.Type.SD),
-    HALT(Command.Type.HALT);
+    HALT(Command.Type.HALT),
+    RB(Command.Type.RB),
+    WB(Command.Type.WB),
+    SS(Command.Type.SS);
 
     private final Command.Type cause;
 
@@ -71,7 +75,7 @@ public class RealMachine extends Machine {
   /**
    * Default external memory path.
    */
-  private static final String EXTERNAL_MEMORY_PATH = "external_memory.txt";
+  public static final String EXTERNAL_MEMORY_PATH = "external_memory.txt";
   private static final int MAX_VM_COUNT = 5;
   /**
    * Size in words.
@@ -90,14 +94,19 @@ public class RealMachine extends Machine {
    */
   public static final int MEMORY_SIZE = 1000;
   /**
-   * Counter for instantiated RMs.
+   * Counter for instantiated RMs. RMs may be created from multiple threads.
    */
-  private static int RM_IDS = 0;
+  private static final AtomicInteger RM_IDS = new AtomicInteger();
 
   /**
    * Current VM memory Page Table Register's address. Size 3 bytes.
    */
   public int PTR;
+  /**
+   * External memory Base register. Absolute segment ({@link SegmentedExternalMemory}) that channel 3 commands of the
+   * current VM refer to. Set by STVM and SS. Size 4 digits.
+   */
+  public int EB;
   /**
    * Program Interrupt. Default value = {@link ProgramInterrupt#NONE}. Size 1 byte.
    */
@@ -122,25 +131,100 @@ public class RealMachine extends Machine {
   public Mode MODE = Mode.U;
   /**
    * Busy channels. Bitmask [1..3]. 1 Byte.
+   * Channel 3 is only marked busy by writes and SD, reads share it.
    */
   public int BUSY = 0;
 
   public final Keyboard keyboard = new Keyboard();
   public final Screen screen = new Screen();
-  private final ExternalMemory externalMemory = new ExternalMemory(EXTERNAL_MEMORY_PATH);
+  /**
+   * Execution counters of this RM and its VMs. Published through JMX while this RM is open.
+   */
+  public final ExecutionStats stats = new ExecutionStats();
+  private final SegmentedExternalMemory externalMemory;
+  /**
+   * Optional scheduler that orders channel 3 transfers, possibly together with other RMs' transfers.
+   */
+  @Nullable
+  private volatile IoScheduler ioScheduler;
   private final VirtualMachine[] virtualMachines = new VirtualMachine[MAX_VM_COUNT];
+  /**
+   * Segment selected by every VM. VM with index i uses namespace i of the external memory.
+   */
+  private final int[] segments = new int[MAX_VM_COUNT];
   /**
    * Unique id for this RM instance.
    */
-  private final int id = RM_IDS++;
+  private final int id = RM_IDS.getAndIncrement();
+  /**
+   * Counter for VMs created by this RM. Every RM has its own VM id space.
+   */
+  private int vmIds = 0;
+  /**
+   * Set when this RM executes HALT or when its program halts while running freely. Only this RM stops, other RMs in
+   * the same JVM are unaffected.
+   */
+  public volatile boolean halted;
+  /**
+   * When true (default), machines wait for {@link VRM#forward()} between steps. When false, they run freely.
+   */
+  public volatile boolean stepping = true;
+  /**
+   * Amount of instructions executed by this RM and its VMs.
+   */
+  public long instructions;
 
   /**
    * {@link VirtualMachine} that's currently executing.
    */
   public VirtualMachine virtualMachine;
 
-  public RealMachine(ObservableList<String> commandLog, Memory memory) {
+  public RealMachine(CommandLog commandLog, Memory memory) {
+    this(commandLog, memory, EXTERNAL_MEMORY_PATH);
+  }
+
+  /**
+   * @param externalMemoryPath external memory file used exclusively by this RM. Additional segments are created next
+   *                           to it.
+   */
+  public RealMachine(CommandLog commandLog, Memory memory, @NotNull String externalMemoryPath) {
     super(commandLog, memory);
+    externalMemory = new SegmentedExternalMemory(externalMemoryPath);
+    stats.register(toString());
+  }
+
+  /**
+   * Routes RD, WD, RB and WB through the given scheduler. The scheduler may be shared with other RMs.
+   * @param ioScheduler scheduler or null to access the external memory directly
+   */
+  public void setIoScheduler(@Nullable IoScheduler ioScheduler) {
+    this.ioScheduler = ioScheduler;
+  }
+
+  /**
+   * Executes a channel 3 transfer of the current segment's pointed block. When there's a {@link #ioScheduler}, blocks
+   * until it serves the transfer.
+   */
+  private void executeExternalMemory(boolean write, @NotNull Runnable transfer) throws InterruptedException {
+    final IoScheduler scheduler = ioScheduler;
+    if (scheduler == null) {
+      transfer.run();
+      return;
+    }
+
+    final long address = IoScheduler.address(id, (long) EB * ExternalMemory.SIZE + externalMemory.getPointer(EB));
+    final long queued = System.nanoTime();
+    scheduler.execute(address, write, () -> {
+      stats.channelWait(externalMemory.getIndex(), System.nanoTime() - queued);
+      transfer.run();
+    });
+  }
+
+  /**
+   * Generates an id for a VM created by this RM.
+   */
+  synchronized int nextVirtualMachineId() {
+    return vmIds++;
   }
 
   /**
@@ -156,6 +240,20 @@ public class RealMachine extends Machine {
     return Utils.checkFlag(BUSY, i);
   }
 
+  /**
+   * Blocks while the given channel is busy.
+   */
+  private void awaitChannel(Channel channel) throws InterruptedException {
+    if (!isChannelBusy(channel.getIndex())) return;
+
+    // Wait on the busy channel's object
+    final long start = System.nanoTime();
+    synchronized (channel) {
+      channel.wait();
+    }
+    stats.channelWait(channel.getIndex(), System.nanoTime() - start);
+  }
+
   private void setChannelBusy(int i, boolean busy) {
     if (busy) {
       BUSY = Utils.setFlag(BUSY, i);
@@ -171,17 +269,13 @@ public class RealMachine extends Machine {
   protected synchronized void executeQuietly(Command command) throws UnhandledCommandException, MemoryOutOfBoundsException, InterruptedException {
     // Log command
     commandLog.add(String.format("%s in %s", command.toString(), this));
-    System.out.println("Execute " + command + " in " + this);
+    instructions++;
+    final long started = stats.executing(command.type);
 
     switch (command.type) {
       case GD:
         // Block until keyboard is free
-        if (isChannelBusy(keyboard.getIndex())) {
-          // Wait on the busy channel's object
-          synchronized (keyboard) {
-            keyboard.wait();
-          }
-        }
+        awaitChannel(keyboard);
 
         // Block keyboard channel
         setChannelBusy(keyboard.getIndex(), true);
@@ -194,12 +288,7 @@ public class RealMachine extends Machine {
         break;
       case PD:
         // Block until screen is free
-        if (isChannelBusy(screen.getIndex())) {
-          // Wait on the busy channel's object
-          synchronized (screen) {
-            screen.wait();
-          }
-        }
+        awaitChannel(screen);
 
         // Block screen channel
         setChannelBusy(screen.getIndex(), true);
@@ -211,49 +300,79 @@ public class RealMachine extends Machine {
         setChannelBusy(screen.getIndex(), false);
         break;
       case RD: {
+        // Reads don't block the channel, they only wait for a write in progress
+        awaitChannel(externalMemory);
+
+        // Read words straight into memory
+        final int segment = EB;
+        final Word[] targets = memory.get(command.getArgument(), 10);
+        executeExternalMemory(false, () -> externalMemory.read(segment, targets));
+        memory.changed(command.getArgument(), 10);
+        break;
+      }
+      case WD: {
         // Block until external memory is free
-        if (isChannelBusy(externalMemory.getIndex())) {
-          // Wait on the busy channel's object
-          synchronized (externalMemory) {
-            externalMemory.wait();
-          }
-        }
+        awaitChannel(externalMemory);
 
         // Block external memory channel
         setChannelBusy(externalMemory.getIndex(), true);
 
-        // Read words
-        final Word[] words = externalMemory.read();
-
-        // Save in memory
-        for (int i = 0; i < words.length; i++) {
-          memory.replace(command.getArgument() + i, words[i]);
+        // Write memory words to external memory. They're encoded straight from their symbols.
+        final int segment = EB;
+        final Word[] words = memory.get(command.getArgument(), 10);
+        try {
+          executeExternalMemory(true, () -> externalMemory.write(segment, words));
+        } catch (UnrepresentableWordException e) {
+          // E.g. keyboard input with symbols a binary file can't store. Nothing was written.
+          e.printStackTrace();
+          PI = ProgramInterrupt.INV_ASSIGN;
         }
 
         // Unblock external memory channel
         setChannelBusy(externalMemory.getIndex(), false);
         break;
       }
-      case WD: {
-        // Block until external memory is free
-        if (isChannelBusy(externalMemory.getIndex())) {
-          // Wait on the busy channel's object
-          synchronized (externalMemory) {
-            externalMemory.wait();
-          }
+      case RB: {
+        // Reads don't block the channel, they only wait for a write in progress
+        awaitChannel(externalMemory);
+
+        // Read all blocks straight into memory with a single request
+        final int[] addresses = getBlockAddresses(command);
+        final Word[][] blocks = new Word[addresses.length][];
+        for (int i = 0; i < blocks.length; i++) {
+          blocks[i] = memory.get(addresses[i], 10);
+        }
+        final int segment = EB;
+        final int start = externalMemory.getPointer(segment);
+        executeExternalMemory(false, () -> externalMemory.readBlocks(segment, start, blocks));
+        for (int address : addresses) {
+          memory.changed(address, 10);
         }
+        break;
+      }
+      case WB: {
+        // Block until external memory is free
+        awaitChannel(externalMemory);
 
         // Block external memory channel
         setChannelBusy(externalMemory.getIndex(), true);
 
-        // Get 10 words from memory
-        final Word[] words = new Word[10];
-        for (int i = 0; i < 10; i++) {
-          words[i] = memory.get(command.getArgument() + i);
+        // Get 10 words of every block from memory
+        final int[] addresses = getBlockAddresses(command);
+        final Word[][] blocks = new Word[addresses.length][];
+        for (int i = 0; i < blocks.length; i++) {
+          blocks[i] = memory.get(addresses[i], 10);
         }
 
-        // Write words to external memory
-        externalMemory.write(words);
+        // Write all blocks with a single request
+        final int segment = EB;
+        final int start = externalMemory.getPointer(segment);
+        try {
+          executeExternalMemory(true, () -> externalMemory.writeBlocks(segment, start, blocks));
+        } catch (UnrepresentableWordException e) {
+          e.printStackTrace();
+          PI = ProgramInterrupt.INV_ASSIGN;
+        }
 
         // Unblock external memory channel
         setChannelBusy(externalMemory.getIndex(), false);
@@ -261,23 +380,26 @@ public class RealMachine extends Machine {
       }
       case SD:
         // Block until external memory is free
-        if (isChannelBusy(externalMemory.getIndex())) {
-          // Wait on the busy channel's object
-          synchronized (externalMemory) {
-            externalMemory.wait();
-          }
-        }
+        awaitChannel(externalMemory);
 
         // Block external memory channel
         setChannelBusy(externalMemory.getIndex(), true);
 
-        externalMemory.setPointer(command.getArgument());
+        externalMemory.setPointer(EB, command.getArgument());
 
         // Unblock external memory channel
         setChannelBusy(externalMemory.getIndex(), false);
         break;
+      case SS: {
+        // Select a segment within the current VM's namespace
+        final int namespace = EB / SegmentedExternalMemory.SEGMENTS;
+        segments[namespace] = command.getArgument();
+        EB = namespace * SegmentedExternalMemory.SEGMENTS + segments[namespace];
+        break;
+      }
       case HALT:
-        System.exit(3);
+        externalMemory.close();
+        halted = true;
         break;
       case STVM: {
         final int index = command.getArgument();
@@ -330,6 +452,7 @@ public class RealMachine extends Machine {
         // Reference newly created/resumed VM as the current one
         virtualMachine = virtualMachines[index];
         PTR = vmPageTableOffset;
+        EB = index * SegmentedExternalMemory.SEGMENTS + segments[index];
         break;
       }
       case SVRG: {
@@ -368,6 +491,7 @@ public class RealMachine extends Machine {
           PI = RealMachine.ProgramInterrupt.OVERFLOW;
         }
     }
+    stats.executed(command.type, started);
   }
 
   @Override
@@ -382,14 +506,41 @@ public class RealMachine extends Machine {
     return PI.ordinal() + SI.ordinal() + IOI > 0 || TI == 0;
   }
 
+  /**
+   * Writes queued external memory blocks to the file. Called whenever channel 3 goes idle, e.g. when a VM's time slice
+   * ends or when it halts. Dirty cached blocks stay cached until they're evicted or the file is closed.
+   */
+  public void drainExternalMemory() {
+    externalMemory.drain();
+  }
+
+  /**
+   * Flushes and closes the external memory file. This RM must not use channel 3 afterwards.
+   */
+  public void closeExternalMemory() {
+    externalMemory.close();
+  }
+
+  /**
+   * Closes the external memory file and stops publishing {@link #stats}. This RM must not be used afterwards.
+   */
+  public void close() {
+    closeExternalMemory();
+    stats.unregister();
+  }
+
   /**
    * Used to halt a VM from being tracked by this RM.
    */
   public synchronized void haltVM(VirtualMachine vm) {
+    // A halted VM won't issue any more channel 3 requests
+    drainExternalMemory();
+
     // Remove from VM list
     for (int i = 0; i < virtualMachines.length; i++) {
       if (virtualMachines[i] == vm) {
         virtualMachines[i] = null;
+        segments[i] = 0;
       }
     }
     // Remove if it's the current VM
@@ -419,7 +570,7 @@ public class RealMachine extends Machine {
     execute(new Command(Command.Type.SVRG, vmIndex));
 
     // Wait for the next command
-    wait();
+    doWait();
   }
 
   /**
@@ -448,6 +599,28 @@ public class RealMachine extends Machine {
     return res;
   }
 
+  /**
+   * Resolves the memory blocks of a block transfer command (RB/WB). Argument xyz refers to z blocks (0 means 10)
+   * starting with the current VM's block xy. Every block is translated separately, since VM blocks needn't be adjacent
+   * in RM memory.
+   * @return absolute address of every block
+   * @throws MemoryOutOfBoundsException when the blocks exceed VM memory
+   */
+  private int[] getBlockAddresses(Command command) throws MemoryOutOfBoundsException {
+    final int first = command.x * 10 + command.y;
+    final int count = (command.z == 0) ? 10 : command.z;
+    if (first + count > VM_MEMORY_SIZE / 10) {
+      throw new MemoryOutOfBoundsException(String.format("%s referenced blocks outside VM memory!", command));
+    }
+
+    final PageTable pageTable = getPageTable(PTR);
+    final int[] addresses = new int[count];
+    for (int i = 0; i < count; i++) {
+      addresses[i] = getAbsoluteAddress(pageTable, (first + i) * 10);
+    }
+    return addresses;
+  }
+
   /**
    * Gets VM page table at the specified address.
    * @param address page table address
@@ -526,6 +699,10 @@ public class RealMachine extends Machine {
   public Command getAbsoluteCommand(Command command) {
     // HALT has no arguments that need to be converted
     if (command.type == Command.Type.HALT) return command;
+    // Block transfers translate every block themselves
+    if (command.type == Command.Type.RB || command.type == Command.Type.WB) return command;
+    // Segment number isn't an address
+    if (command.type == Command.Type.SS) return command;
 
     final String absolute = Utils.precedeZeroes(getAbsoluteAddress(command.getArgument()), 3);
 
@@ -553,11 +730,41 @@ public class RealMachine extends Machine {
     throw new IllegalStateException("Current VM not found in the VM list!");
   }
 
+  @Override
+  protected boolean isStepping() {
+    return stepping;
+  }
+
   /**
-   * Convenience method that synchronizes a {@link #wait()} command.
+   * Brings this RM back to its initial state so it can run another program: memory is cleared, registers are reset,
+   * VMs are dropped and external memory is re-initialized. Segments other than the base one are released.
    */
-  public synchronized void doWait() throws InterruptedException {
-    wait();
+  public synchronized void reset() {
+    memory.clear();
+    IC = 0;
+    TMP = new Word();
+    C = Comparison.EQUAL;
+    PTR = 0;
+    EB = 0;
+    PI = ProgramInterrupt.NONE;
+    TI = DEFAULT_TIMER;
+    SI = SuperInterrupt.NONE;
+    IOI = 0;
+    MODE = Mode.U;
+    BUSY = 0;
+    keyboard.clear();
+    screen.word = null;
+    for (int i = 0; i < virtualMachines.length; i++) {
+      virtualMachines[i] = null;
+    }
+    virtualMachine = null;
+    for (int i = 0; i < segments.length; i++) {
+      segments[i] = 0;
+    }
+    vmIds = 0;
+    halted = false;
+    instructions = 0;
+    externalMemory.initialize();
   }
 
 }
\ No newline at end of file
@@ -1,7 +1,8 @@
 package vrm;
 
-import com.sun.istack.internal.NotNull;
-import com.sun.istack.internal.Nullable;
+import java.util.function.Consumer;
+import vrm.annotations.NotNull;
+import vrm.annotations.Nullable;
 
 /**
  * Screen model. Used to display output.
@@ -11,9 +12,23 @@ public class Screen implements Channel {
   @Nullable
   public Word word;
 
+  /**
+   * Optionally notified with a copy of every written word.
+   */
+  @Nullable
+  private Consumer<Word> listener;
+
   public void write(@NotNull Word word) {
-    System.out.println("Write to screen: " + word.toString());
     this.word = word;
+
+    if (listener != null) {
+      // Memory words are mutable, hand out a copy
+      listener.accept(new Word(word.toString()));
+    }
+  }
+
+  public void setListener(@Nullable Consumer<Word> listener) {
+    this.listener = listener;
   }
 
   @Override
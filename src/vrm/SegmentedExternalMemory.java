@@ -0,0 +1,475 @@
+package vrm;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import vrm.annotations.NotNull;
+
+/**
+ * External storage spread over many {@link ExternalMemory} files (segments) of {@link ExternalMemory#SIZE} blocks.
+ * Segments are grouped into namespaces, one for every VM, of {@link #SEGMENTS} segments each. A segment is addressed
+ * by its absolute number: namespace * {@link #SEGMENTS} + segment.
+ * <br>
+ * Segments are allocated lazily. A segment that was never written has no file and reads as zeroes.
+ * Segment 0 of namespace 0 is the base file itself, so existing external memory files keep working.
+ * <br>
+ * Thread safe. The map of open segments is only locked to look up, open or close a segment, transfers themselves run
+ * in parallel on the thread safe {@link ExternalMemory} of their segment, so transfers of different VMs (or prefetches
+ * and {@link IoScheduler} transfers of the same VM) don't wait for each other.
+ */
+public class SegmentedExternalMemory implements Channel {
+
+  /**
+   * Segments per namespace. SS addresses at most 3 digits.
+   */
+  public static final int SEGMENTS = 1000;
+  /**
+   * Max amount of simultaneously open segment files. Least recently used ones are closed first.
+   */
+  private static final int MAX_OPEN_SEGMENTS = 16;
+
+  private final File base;
+  private final ExternalMemory.Backend backend;
+  private final ExternalStorage.Durability durability;
+  private final ExternalMemoryFormat newFileFormat;
+  private final int cacheSize;
+  /**
+   * Read-ahead of every open segment. Every VM streams within its own segments, so sequential access is detected per
+   * VM. Disabled unless {@link #setReadAhead(int) set}.
+   */
+  private volatile int readAhead;
+  /**
+   * Read-ahead statistics of closed segments.
+   */
+  private long closedPrefetchedBlocks, closedPrefetchHits, closedPrefetchWasted, closedPrefetchFailures;
+
+  /**
+   * Open segments. Access ordered, so the eldest entry is the least recently used one. Also guards opening and closing
+   * segments and the statistics of closed ones.
+   */
+  private final LinkedHashMap<Integer, Segment> segments = new LinkedHashMap<>(16, 0.75f, true);
+  /**
+   * Pointer of every segment that was pointed to, i.e. a logical pointer per VM namespace. Segments are accessed at
+   * explicit blocks, so the pointers of segments don't interfere and survive segments being closed.
+   */
+  private final Map<Integer, Integer> pointers = new ConcurrentHashMap<>();
+
+  /**
+   * Open segment file and the amount of transfers using it. Segments in use are never closed by eviction.
+   */
+  private static class Segment {
+    final ExternalMemory memory;
+    int users;
+
+    Segment(@NotNull ExternalMemory memory) {
+      this.memory = memory;
+    }
+  }
+
+  /**
+   * Segments are accessed with a {@link ExternalMemory.Backend#FILE} backend whose writes are
+   * {@link ExternalStorage.Durability#JOURNALED journaled}.
+   */
+  public SegmentedExternalMemory(@NotNull String basePath) {
+    this(basePath, ExternalMemory.Backend.FILE, ExternalStorage.Durability.JOURNALED, ExternalMemoryFormat.TEXT, 0);
+  }
+
+  /**
+   * @param basePath      segment 0 of namespace 0. Other segments are stored next to it.
+   * @param backend       how segment files are accessed
+   * @param durability    when written blocks are forced to the disk
+   * @param newFileFormat layout of new segment files
+   * @param cacheSize     block cache size of every open segment
+   * @see ExternalMemory#ExternalMemory(String, ExternalMemory.Backend, ExternalStorage.Durability, ExternalMemoryFormat)
+   */
+  public SegmentedExternalMemory(@NotNull String basePath, @NotNull ExternalMemory.Backend backend,
+                                 @NotNull ExternalStorage.Durability durability,
+                                 @NotNull ExternalMemoryFormat newFileFormat, int cacheSize) {
+    this.base = new File(basePath);
+    this.backend = backend;
+    this.durability = durability;
+    this.newFileFormat = newFileFormat;
+    this.cacheSize = cacheSize;
+  }
+
+  /**
+   * @return file of the given absolute segment
+   */
+  public File getFile(int segment) {
+    if (segment == 0) return base;
+
+    // E.g. external_memory.txt becomes external_memory_1_5.txt for segment 5 of namespace 1
+    final String name = base.getName();
+    final int dot = name.lastIndexOf('.');
+    final String stem = (dot == -1) ? name : name.substring(0, dot);
+    final String extension = (dot == -1) ? "" : name.substring(dot);
+    return new File(base.getAbsoluteFile().getParentFile(),
+        String.format("%s_%d_%d%s", stem, segment / SEGMENTS, segment % SEGMENTS, extension));
+  }
+
+  /**
+   * Opens the segment if necessary and marks it as used. Every acquired segment must be {@link #release(Segment)
+   * released}.
+   * @param allocate when true, a missing segment file is created and initialized
+   * @return used segment or null if it wasn't allocated and allocation wasn't requested
+   */
+  private Segment acquire(int segment, boolean allocate) {
+    if (segment < 0) {
+      throw new IllegalArgumentException("Invalid segment: " + segment);
+    }
+
+    synchronized (segments) {
+      Segment entry = segments.get(segment);
+      if (entry == null) {
+        final File file = getFile(segment);
+        final boolean exists = file.isFile() && file.length() > 0;
+        if (!exists && !allocate) return null;
+
+        final ExternalMemory memory = new ExternalMemory(file.getPath(), backend, durability, newFileFormat);
+        if (!exists) {
+          memory.initialize();
+        }
+        memory.setCacheSize(cacheSize);
+        memory.setReadAhead(readAhead);
+        entry = new Segment(memory);
+        segments.put(segment, entry);
+      }
+
+      entry.users++;
+      evictIdle();
+      return entry;
+    }
+  }
+
+  private void release(@NotNull Segment entry) {
+    synchronized (segments) {
+      entry.users--;
+      evictIdle();
+    }
+  }
+
+  /**
+   * @return every open segment, marked as used
+   */
+  private List<Segment> acquireAll() {
+    synchronized (segments) {
+      final List<Segment> entries = new ArrayList<>(segments.values());
+      for (Segment entry : entries) {
+        entry.users++;
+      }
+      return entries;
+    }
+  }
+
+  private void releaseAll(@NotNull List<Segment> entries) {
+    synchronized (segments) {
+      for (Segment entry : entries) {
+        entry.users--;
+      }
+      evictIdle();
+    }
+  }
+
+  /**
+   * Closes least recently used segments that aren't in use while there are more than {@link #MAX_OPEN_SEGMENTS}.
+   * Closed under the lock, so a segment can't be opened again before its file is written back.
+   * Must be called with {@link #segments} locked.
+   */
+  private void evictIdle() {
+    final Iterator<Segment> iterator = segments.values().iterator();
+    while (segments.size() > MAX_OPEN_SEGMENTS && iterator.hasNext()) {
+      final Segment entry = iterator.next();
+      if (entry.users > 0) continue;
+
+      iterator.remove();
+      close(entry.memory);
+    }
+  }
+
+  /**
+   * Closes a segment and keeps its statistics. Must be called with {@link #segments} locked.
+   */
+  private void close(@NotNull ExternalMemory memory) {
+    closedPrefetchedBlocks += memory.getPrefetchedBlocks();
+    closedPrefetchHits += memory.getPrefetchHits();
+    closedPrefetchWasted += memory.getPrefetchWasted();
+    closedPrefetchFailures += memory.getPrefetchFailures();
+    memory.close();
+  }
+
+  /**
+   * @param blocks max amount of blocks prefetched at once by every segment or 0 to disable read-ahead
+   * @see ExternalMemory#setReadAhead(int)
+   */
+  public void setReadAhead(int blocks) {
+    synchronized (segments) {
+      for (Segment entry : segments.values()) {
+        entry.memory.setReadAhead(blocks);
+      }
+      readAhead = blocks;
+    }
+  }
+
+  /**
+   * @see ExternalMemory#getPrefetchedBlocks()
+   */
+  public long getPrefetchedBlocks() {
+    synchronized (segments) {
+      long blocks = closedPrefetchedBlocks;
+      for (Segment entry : segments.values()) {
+        blocks += entry.memory.getPrefetchedBlocks();
+      }
+      return blocks;
+    }
+  }
+
+  /**
+   * @see ExternalMemory#getPrefetchHits()
+   */
+  public long getPrefetchHits() {
+    synchronized (segments) {
+      long hits = closedPrefetchHits;
+      for (Segment entry : segments.values()) {
+        hits += entry.memory.getPrefetchHits();
+      }
+      return hits;
+    }
+  }
+
+  /**
+   * @see ExternalMemory#getPrefetchWasted()
+   */
+  public long getPrefetchWasted() {
+    synchronized (segments) {
+      long wasted = closedPrefetchWasted;
+      for (Segment entry : segments.values()) {
+        wasted += entry.memory.getPrefetchWasted();
+      }
+      return wasted;
+    }
+  }
+
+  /**
+   * @see ExternalMemory#getPrefetchFailures()
+   */
+  public long getPrefetchFailures() {
+    synchronized (segments) {
+      long failures = closedPrefetchFailures;
+      for (Segment entry : segments.values()) {
+        failures += entry.memory.getPrefetchFailures();
+      }
+      return failures;
+    }
+  }
+
+  public int getPointer(int segment) {
+    final Integer pointer = pointers.get(segment);
+    return (pointer == null) ? 0 : pointer;
+  }
+
+  /**
+   * Points to a block of the given segment.
+   * @see ExternalMemory#setPointer(int)
+   */
+  public void setPointer(int segment, int pointer) {
+    if (pointer < 0 || pointer > ExternalMemory.SIZE) {
+      throw new IllegalArgumentException("Invalid pointer: " + pointer);
+    }
+
+    pointers.put(segment, pointer);
+  }
+
+  /**
+   * Reads 10 words of the given segment from the block pointed by its pointer.
+   * @see ExternalMemory#read()
+   */
+  public Word[] read(int segment) throws RuntimeException {
+    final Word[] words = emptyBlock();
+    read(segment, words);
+    return words;
+  }
+
+  /**
+   * Reads 10 words of the given segment straight into existing words.
+   * @see ExternalMemory#read(int, Word[])
+   */
+  public void read(int segment, @NotNull Word[] targets) throws RuntimeException {
+    final Segment entry = acquire(segment, false);
+    if (entry == null) {
+      clear(targets);
+      return;
+    }
+
+    try {
+      entry.memory.read(getPointer(segment), targets);
+    } finally {
+      release(entry);
+    }
+  }
+
+  /**
+   * Writes 10 words to the given segment at the block pointed by its pointer. Allocates the segment if necessary.
+   * @see ExternalMemory#write(Word[])
+   */
+  public void write(int segment, @NotNull Word[] words) throws RuntimeException {
+    final Segment entry = acquire(segment, true);
+    try {
+      entry.memory.write(getPointer(segment), words);
+    } finally {
+      release(entry);
+    }
+  }
+
+  /**
+   * @see ExternalMemory#readBlocks(int, int)
+   */
+  public Word[][] readBlocks(int segment, int start, int count) throws RuntimeException {
+    final Word[][] blocks = new Word[count][];
+    for (int i = 0; i < count; i++) {
+      blocks[i] = emptyBlock();
+    }
+    readBlocks(segment, start, blocks);
+    return blocks;
+  }
+
+  /**
+   * @see ExternalMemory#readBlocks(int, Word[][])
+   */
+  public void readBlocks(int segment, int start, @NotNull Word[][] targets) throws RuntimeException {
+    final Segment entry = acquire(segment, false);
+    if (entry != null) {
+      try {
+        entry.memory.readBlocks(start, targets);
+      } finally {
+        release(entry);
+      }
+      return;
+    }
+
+    if (start < 0 || targets.length == 0 || start + targets.length > ExternalMemory.SIZE) {
+      throw new IllegalArgumentException(String.format("Invalid block range: %d + %d", start, targets.length));
+    }
+    for (Word[] target : targets) {
+      clear(target);
+    }
+  }
+
+  /**
+   * Allocates the segment if necessary.
+   * @see ExternalMemory#writeBlocks(int, Word[][])
+   */
+  public void writeBlocks(int segment, int start, @NotNull Word[][] blocks) throws RuntimeException {
+    final Segment entry = acquire(segment, true);
+    try {
+      entry.memory.writeBlocks(start, blocks);
+    } finally {
+      release(entry);
+    }
+  }
+
+  /**
+   * Unallocated segments read as zeroes.
+   */
+  private static void clear(@NotNull Word[] words) {
+    for (int i = 0; i < ExternalMemory.WORD_IO; i++) {
+      words[i].replace("00000");
+    }
+  }
+
+  private static Word[] emptyBlock() {
+    final Word[] words = new Word[ExternalMemory.WORD_IO];
+    for (int i = 0; i < words.length; i++) {
+      words[i] = new Word();
+    }
+    return words;
+  }
+
+  /**
+   * Flushes every open segment.
+   * @see ExternalMemory#flush()
+   */
+  public void flush() throws RuntimeException {
+    final List<Segment> entries = acquireAll();
+    try {
+      for (Segment entry : entries) {
+        entry.memory.flush();
+      }
+    } finally {
+      releaseAll(entries);
+    }
+  }
+
+  /**
+   * Drains the write queue of every open segment.
+   * @see ExternalMemory#drain()
+   */
+  public void drain() throws RuntimeException {
+    final List<Segment> entries = acquireAll();
+    try {
+      for (Segment entry : entries) {
+        entry.memory.drain();
+      }
+    } finally {
+      releaseAll(entries);
+    }
+  }
+
+  /**
+   * Initializes the base segment and releases all others. Released segment files are deleted, so they read as
+   * zeroes until written again. Must not be called while transfers are running.
+   */
+  public void initialize() {
+    synchronized (segments) {
+      for (Segment entry : segments.values()) {
+        close(entry.memory);
+      }
+      segments.clear();
+      pointers.clear();
+
+      // Delete allocated segments
+      final File directory = base.getAbsoluteFile().getParentFile();
+      final File[] files = (directory == null) ? null : directory.listFiles();
+      if (files != null) {
+        final String prefix = getFile(SEGMENTS).getName().replaceFirst("_1_0.*$", "_");
+        final String suffix = getFile(SEGMENTS).getName().replaceFirst("^.*_1_0", "");
+        for (File file : files) {
+          final String name = file.getName();
+          if (!name.startsWith(prefix) || !name.endsWith(suffix)) continue;
+          final String numbers = name.substring(prefix.length(), name.length() - suffix.length());
+          if (numbers.matches("\\d+_\\d+") && !file.delete()) {
+            throw new IllegalStateException("Couldn't release external memory segment " + file);
+          }
+        }
+      }
+
+      final Segment entry = acquire(0, true);
+      try {
+        entry.memory.initialize();
+      } finally {
+        release(entry);
+      }
+    }
+  }
+
+  /**
+   * Flushes and closes every open segment. Must not be called while transfers are running.
+   */
+  public void close() {
+    synchronized (segments) {
+      for (Segment entry : segments.values()) {
+        close(entry.memory);
+      }
+      segments.clear();
+    }
+  }
+
+  @Override
+  public int getIndex() {
+    return 3;
+  }
+
+}
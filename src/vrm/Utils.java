@@ -2,10 +2,6 @@ package vrm;
 
 import java.util.stream.IntStream;
 
-import javafx.concurrent.Task;
-import javafx.concurrent.WorkerStateEvent;
-import javafx.event.EventHandler;
-
 /**
  * Created by Simas on 2017 Mar 04.
  */
@@ -52,6 +48,25 @@ public class Utils {
     return precedeZeroes(String.valueOf(integer), size);
   }
 
+  /**
+   * Converts user input to a word. Numbers are preceded with zeroes, everything else with spaces.
+   * E.g. 12 becomes 00012 and AB becomes "   AB".
+   * @throws IllegalArgumentException when the input is longer than {@link Word#LENGTH}
+   */
+  public static Word toWord(String input) throws IllegalArgumentException {
+    String value;
+    try {
+      // Try preceding number with zeroes
+      final int number = Integer.parseInt(input);
+      value = precedeZeroes(number, Word.LENGTH);
+    } catch (NumberFormatException ignored) {
+      // Otherwise precede with spaces
+      value = String.format("%5s", input);
+    }
+
+    return new Word(value);
+  }
+
   /**
    * Generate a range of ints.
    */
@@ -59,17 +74,4 @@ public class Utils {
     return IntStream.range(startInclusive, endExclusive).toArray();
   }
 
-  public static void delay(Runnable runnable, int millis) throws RuntimeException {
-    final Task<Void> task = new Task<Void>() {
-      @Override
-      protected Void call() throws Exception {
-        Thread.sleep(millis);
-        return null;
-      }
-    };
-    task.setOnSucceeded(event -> runnable.run());
-
-    new Thread(task).start();
-  }
-
 }
@@ -1,8 +1,6 @@
 package vrm;
 
-import javafx.collections.FXCollections;
-import javafx.collections.ObservableList;
-import ui.MainController;
+import vrm.annotations.Nullable;
 import vrm.exceptions.InvalidArgumentsException;
 import vrm.exceptions.InvalidCommandException;
 import vrm.exceptions.MemoryOutOfBoundsException;
@@ -13,14 +11,33 @@ import vrm.exceptions.MemoryOutOfBoundsException;
 @SuppressWarnings("UnnecessaryLocalVariable")
 public class VRM {
 
+  /**
+   * Observer of VRM execution, e.g. a UI. Executed commands are observed through {@link CommandLog#addListener(Runnable)}.
+   */
+  public interface Listener {
+    /**
+     * Called on the VRM thread between instructions whenever the machine state should be redrawn.
+     * The VRM waits for this call, so implementations must return quickly and never block.
+     */
+    void draw();
+  }
+
   private static final int INTERRUPT_HANDLER_START_ADDRESS = 600;
+  /**
+   * Program executed by {@link #begin()} (fibonacci less than 1000).
+   */
+  private static final String[] DEFAULT_PROGRAM = {
+      "HALT", "CR013", "AD012", "CP014", "JM015", "CM011", "CR013", "CM012", "CR011", "CM013", "JP000", "00000", "00000",
+      "00001", "00005", "HALT"
+  };
 
   /**
-   * List containing all executed commands. This is managed for UI purposes only.
+   * Latest executed commands. This is managed for UI purposes only.
    */
-  public final ObservableList<String> commandLog = FXCollections.observableArrayList();
+  public final CommandLog commandLog = new CommandLog();
   public final RealMachine realMachine;
-  private final MainController ui;
+  @Nullable
+  private final Listener listener;
 
   /**
    * Reference {@link VirtualMachine} that was last executing.
@@ -28,54 +45,124 @@ public class VRM {
    */
   public VirtualMachine virtualMachine;
 
+  /**
+   * Samples executed instructions or null when not profiling.
+   */
+  @Nullable
+  private Profiler profiler;
+
   /**
    * Create a VRM object that performs the CPU algorithm and contains all the registers.
    * {@link #realMachine} and {@link #virtualMachine} values are public for viewing but should not be modified from outside.
-   * @param mainController UI controller that's called when redrawing is necessary.
+   * @param listener notified when redrawing is necessary. Null when running without a UI.
    */
-  public VRM(MainController mainController) throws InterruptedException {
-    ui = mainController;
+  public VRM(@Nullable Listener listener) throws InterruptedException {
+    this(listener, RealMachine.EXTERNAL_MEMORY_PATH);
+  }
+
+  /**
+   * Create a VRM whose RM uses its own external memory file. Multiple such VRMs can run in the same JVM independently.
+   * @param listener           notified when redrawing is necessary. Null when running without a UI.
+   * @param externalMemoryPath external memory file used exclusively by this VRM
+   */
+  public VRM(@Nullable Listener listener, String externalMemoryPath) throws InterruptedException {
+    this.listener = listener;
 
     // Create a RM with a 1000 word memory
-    realMachine = new RealMachine(commandLog, new Memory(RealMachine.MEMORY_SIZE));
+    realMachine = new RealMachine(commandLog, new Memory(RealMachine.MEMORY_SIZE), externalMemoryPath);
 
     // Init interruption handlers
     interruptionHandlers();
   }
 
+  /**
+   * Executes {@link #begin()} on a dedicated worker thread. Each VRM is pinned to its own thread.
+   * @return the started thread
+   */
+  public Thread start() {
+    final Thread thread = new Thread(() -> {
+      try {
+        begin();
+      } catch (InterruptedException e) {
+        e.printStackTrace();
+      }
+    }, "VRM-" + realMachine);
+    thread.start();
+    return thread;
+  }
+
+  /**
+   * @return copy of the program executed by {@link #begin()}
+   */
+  public static String[] getDefaultProgram() {
+    return DEFAULT_PROGRAM.clone();
+  }
+
+  /**
+   * Attaches a profiler that samples both VM and RM (interrupt handler) instructions. Must be called before the VRM
+   * starts running.
+   * @param profiler profiler or null to stop profiling
+   */
+  public void setProfiler(@Nullable Profiler profiler) {
+    this.profiler = profiler;
+  }
+
+  @Nullable
+  public Profiler getProfiler() {
+    return profiler;
+  }
+
+  /**
+   * Loads the default program and executes it. Waits for {@link #forward()} before the first instruction.
+   */
   public void begin() throws InterruptedException {
+    load(DEFAULT_PROGRAM);
+    if (listener != null) {
+      listener.draw();
+    }
+
+    // VM is now started and its program loaded into memory. Wait for the caller to continue.
+    realMachine.doWait();
+
+    run(0);
+  }
+
+  /**
+   * Creates the first VM and stores the given program at the beginning of its memory.
+   * @param program program words. Shorter words are padded with spaces, e.g. HALT becomes "HALT ".
+   * @throws IllegalArgumentException when a program word is longer than {@link Word#LENGTH}
+   * @throws MemoryOutOfBoundsException when the program doesn't fit in VM memory
+   */
+  public void load(String... program) throws InterruptedException, IllegalArgumentException, MemoryOutOfBoundsException {
     // Imitate VM creation command to get back to VM execution
     realMachine.executeQuietly(new Command(Command.Type.STVM, 0));
     virtualMachine = realMachine.virtualMachine;
 
-    // Store a program (fibonacci less than 1000) in VM memory
-    final Memory program = virtualMachine.memory;
-    program.replace(0, "HALT ");
-    program.replace(1, "CR013");
-    program.replace(2, "AD012");
-    program.replace(3, "CP014");
-    program.replace(4, "JM015");
-    program.replace(5, "CM011");
-    program.replace(6, "CR013");
-    program.replace(7, "CM012");
-    program.replace(8, "CR011");
-    program.replace(9, "CM013");
-    program.replace(10, "JP000");
-    program.replace(12, "00000");
-    program.replace(13, "00001");
-    program.replace(14, "00005");
-    program.replace(15, "HALT ");
+    // Store a program in VM memory
+    final Memory memory = virtualMachine.memory;
+    for (int i = 0; i < program.length; i++) {
+      memory.replace(i, String.format("%-5s", program[i]));
+    }
 
-    // VM is now started and its program loaded into memory. Wait for the caller to continue.
-    synchronized (realMachine) {
-      realMachine.wait();
+    if (profiler != null) {
+      profiler.loaded(virtualMachine);
     }
+  }
 
+  /**
+   * Executes the loaded program from its beginning.
+   * When the RM isn't {@link RealMachine#stepping stepping}, returns as soon as the program halts.
+   * @param instructionLimit max amount of instructions to execute or 0 for no limit
+   */
+  public void run(long instructionLimit) throws InterruptedException {
     // Point IC to the start of the program
     virtualMachine.IC = 0;
 
     // CPU ALGORITHM
-    while (true) {
+    while (!realMachine.halted) {
+      // Instruction limit reached
+      if (instructionLimit > 0 && realMachine.instructions >= instructionLimit) break;
+
       // 1. Check TI
       if (realMachine.TI <= 0) {
         timerInterrupt();
@@ -123,6 +210,10 @@ public class VRM {
         continue;
       }
 
+      if (profiler != null) {
+        profiler.instruction(virtualMachine, savedIC);
+      }
+
       // 7. Decrement TI
       realMachine.TI--;
 
@@ -142,9 +233,21 @@ public class VRM {
         continue;
       }
 
+      // Nobody is stepping through the HALT handler, so the program is over
+      if (realMachine.SI == RealMachine.SuperInterrupt.HALT && !realMachine.stepping) {
+        realMachine.stats.superInterrupt(realMachine.SI);
+        realMachine.SI = RealMachine.SuperInterrupt.NONE;
+        realMachine.halted = true;
+        break;
+      }
+
       // 11. Handle interruptions
       if (realMachine.SI.ordinal() > 0) {
         superInterrupt(command, savedIC);
+        // The handler's transfer may have failed, e.g. WD of a word the external memory can't store
+        if (realMachine.PI.ordinal() > 0) {
+          programInterrupt();
+        }
       } else if (realMachine.PI.ordinal() > 0) {
         programInterrupt();
       } else if (realMachine.TI <= 0) {
@@ -153,7 +256,14 @@ public class VRM {
         ioiInterrupt();
       }
 
-      ui.draw();
+      if (listener != null) {
+        listener.draw();
+      }
+    }
+
+    // Final state, e.g. after the program halted
+    if (listener != null) {
+      listener.draw();
     }
   }
 
@@ -174,6 +284,9 @@ public class VRM {
    * 11. 1st channel work end - IOI
    * 12. 2nd channel work end - IOI
    * 13. 3rd channel work end - IOI
+   * 14. RB - SI
+   * 15. WB - SI
+   * 16. SS - SI
    * </pre>
    */
   @SuppressWarnings("UnusedAssignment")
@@ -262,9 +375,32 @@ public class VRM {
     words = new Word[] { new Word("PD" + Utils.precedeZeroes(address+2, Word.LENGTH-2)), new Word("STVM0"), new Word("IOI_3") };
     realMachine.memory.replace(address, words);
     realMachine.memory.replace(index++, new Word(Utils.precedeZeroes(address, Word.LENGTH)));
+
+    // 14. RB - SI
+    address += words.length;
+    words = new Word[] { new Word(), new Word("STVM0") };
+    realMachine.memory.replace(address, words);
+    realMachine.memory.replace(index++, new Word(Utils.precedeZeroes(address, Word.LENGTH)));
+
+    // 15. WB - SI
+    address += words.length;
+    words = new Word[] { new Word(), new Word("STVM0") };
+    realMachine.memory.replace(address, words);
+    realMachine.memory.replace(index++, new Word(Utils.precedeZeroes(address, Word.LENGTH)));
+
+    // 16. SS - SI
+    address += words.length;
+    words = new Word[] { new Word(), new Word("STVM0") };
+    realMachine.memory.replace(address, words);
+    realMachine.memory.replace(index++, new Word(Utils.precedeZeroes(address, Word.LENGTH)));
   }
 
   private void timerInterrupt() throws InterruptedException {
+    realMachine.stats.timerInterrupt();
+
+    // Time slice is over, so channel 3 is idle until the next VM resumes
+    realMachine.drainExternalMemory();
+
     // Get handler address
     int address = realMachine.memory.get(0).toNumber();
 
@@ -276,8 +412,11 @@ public class VRM {
 
     // Loop execution until STVM is reached
     while (true) {
+      if (profiler != null) {
+        profiler.instruction(realMachine, realMachine.IC);
+      }
       final Command command = realMachine.step();
-      if (command.type == Command.Type.STVM) break;
+      if (command.type == Command.Type.STVM || realMachine.halted) break;
       // If a non-final (STVM) command was executed, wait and then increment IC for the next iteration
       realMachine.doWait();
       realMachine.IC++;
@@ -296,6 +435,8 @@ public class VRM {
   }
 
   private void programInterrupt() throws InterruptedException {
+    realMachine.stats.programInterrupt(realMachine.PI);
+
     // Suspend current VM
     if (virtualMachine != null) {
       synchronized (virtualMachine) {
@@ -333,8 +474,11 @@ public class VRM {
 
     // Loop execution until STVM is reached
     while (true) {
+      if (profiler != null) {
+        profiler.instruction(realMachine, realMachine.IC);
+      }
       final Command command = realMachine.step();
-      if (command.type == Command.Type.STVM) break;
+      if (command.type == Command.Type.STVM || realMachine.halted) break;
       // If a non-final (STVM) command was executed, wait and then increment IC for the next iteration
       realMachine.doWait();
       realMachine.IC++;
@@ -359,6 +503,8 @@ public class VRM {
    * @param ic       relative instruction address pointing to the command that failed
    */
   private void superInterrupt(Command command, int ic) throws InterruptedException {
+    realMachine.stats.superInterrupt(realMachine.SI);
+
     // Super
     realMachine.MODE = RealMachine.Mode.S;
 
@@ -382,6 +528,15 @@ public class VRM {
       case HALT:
         address = 10;
         break;
+      case RB:
+        address = 14;
+        break;
+      case WB:
+        address = 15;
+        break;
+      case SS:
+        address = 16;
+        break;
       default:
         return;
     }
@@ -413,9 +568,12 @@ public class VRM {
         throw new RuntimeException(e);
       }
       // Execute instruction
+      if (profiler != null) {
+        profiler.instruction(realMachine, savedIC);
+      }
       realMachine.execute(command);
 
-      if (command.type == Command.Type.STVM) break;
+      if (command.type == Command.Type.STVM || realMachine.halted) break;
 
       realMachine.doWait();
     }
@@ -441,6 +599,7 @@ public class VRM {
    */
   private void ioiInterrupt(int channel) throws InterruptedException {
     if (!Utils.checkFlag(realMachine.IOI, channel)) return;
+    realMachine.stats.ioInterrupt(channel);
 
     // Suspend current VM
     if (virtualMachine != null) {
@@ -463,8 +622,11 @@ public class VRM {
 
     // Loop execution until STVM is reached
     while (true) {
+      if (profiler != null) {
+        profiler.instruction(realMachine, realMachine.IC);
+      }
       final Command command = realMachine.step();
-      if (command.type == Command.Type.STVM) break;
+      if (command.type == Command.Type.STVM || realMachine.halted) break;
       // If a non-final (STVM) command was executed, wait and then increment IC for the next iteration
       realMachine.doWait();
       realMachine.IC++;
@@ -482,6 +644,18 @@ public class VRM {
     realMachine.doWait();
   }
 
+  /**
+   * Brings the VRM back to its initial state so another program can be {@link #load(String...) loaded}.
+   */
+  public void reset() {
+    realMachine.reset();
+    commandLog.clear();
+    virtualMachine = null;
+
+    // Memory was cleared, re-install handlers
+    interruptionHandlers();
+  }
+
   /**
    * Interrupts a wait command and continues VRM execution.
    */
@@ -1,6 +1,5 @@
 package vrm;
 
-import javafx.collections.ObservableList;
 import vrm.exceptions.MemoryOutOfBoundsException;
 import vrm.exceptions.NumberOverflowException;
 import vrm.exceptions.UnhandledCommandException;
@@ -10,30 +9,27 @@ import vrm.exceptions.UnhandledCommandException;
  */
 public class VirtualMachine extends Machine {
 
-  /**
-   * Counter for instantiated VMs.
-   */
-  private static int VM_IDS = 0;
-
   /**
    * Reference to a RM that handles this VM.
    */
   private final RealMachine realMachine;
   /**
-   * Unique id for this VM instance.
+   * Unique id for this VM instance within its RM.
    */
-  private final int id = VM_IDS++;
+  private final int id;
 
-  public VirtualMachine(ObservableList<String> commandLog, RealMachine realMachine, Memory memory) {
+  public VirtualMachine(CommandLog commandLog, RealMachine realMachine, Memory memory) {
     super(commandLog, memory);
     this.realMachine = realMachine;
+    id = realMachine.nextVirtualMachineId();
   }
 
   @Override
   protected synchronized void execute(Command command) throws UnhandledCommandException, MemoryOutOfBoundsException, InterruptedException {
     // Log command
     commandLog.add(String.format("%s in %s", command.toString(), this));
-    System.out.println("Execute " + command + " in " + this);
+    realMachine.instructions++;
+    final long started = realMachine.stats.executing(command.type);
 
     // Commands executed in a VM must have an x argument of 0
     if (command.x != 0) {
@@ -49,12 +45,14 @@ public class VirtualMachine extends Machine {
           e.printStackTrace();
           realMachine.PI = RealMachine.ProgramInterrupt.OVERFLOW;
         }
-        wait();
+        realMachine.stats.executed(command.type, started);
+        doWait();
         return;
       case HALT:
         realMachine.SI = RealMachine.SuperInterrupt.HALT;
         realMachine.haltVM(this);
-        wait();
+        realMachine.stats.executed(command.type, started);
+        doWait();
         return;
       case GD:
         realMachine.SI = RealMachine.SuperInterrupt.GD;
@@ -71,15 +69,26 @@ public class VirtualMachine extends Machine {
       case SD:
         realMachine.SI = RealMachine.SuperInterrupt.SD;
         break;
+      case RB:
+        realMachine.SI = RealMachine.SuperInterrupt.RB;
+        break;
+      case WB:
+        realMachine.SI = RealMachine.SuperInterrupt.WB;
+        break;
+      case SS:
+        realMachine.SI = RealMachine.SuperInterrupt.SS;
+        break;
       // The following commands lead to a VM modification but cannot be executed internally.
       case STVM: case SVRG: case LDRG:
         throw new UnhandledCommandException(command, String.format("Command %s wasn't handled in %s.", command, this));
     }
 
+    realMachine.stats.executed(command.type, started);
+
     // All commands that require super privileges invoke a delay to wait for the RM to suspend this VM and then for the command to be executed as super
-    wait();
+    doWait();
     realMachine.suspendVM(this);
-    wait();
+    doWait();
   }
 
   @Override
@@ -101,8 +110,6 @@ public class VirtualMachine extends Machine {
     // Complete string
     final String registers = String.format("%s%s%s00", tmp, ic, c);
 
-    System.out.println("SaveReg: " + registers);
-
     // VM memory size is 10 blocks = 100 words
     // Last block is where we save the registers
     memory.replace(91, new Word(registers.substring(0, 5)));
@@ -117,18 +124,14 @@ public class VirtualMachine extends Machine {
     // Complete string
     final String registers = String.format("%s%s", memory.get(91).toString(), memory.get(92).toString());
 
-    System.out.println("RestoreReg: " + registers);
-
     TMP = new Word(registers.substring(0, 5));
     IC = Integer.valueOf(registers.substring(5, 7));
     C = Comparison.values()[Character.getNumericValue(registers.charAt(7))];
   }
 
-  /**
-   * Convenience method that synchronizes a {@link #wait()} command.
-   */
-  public synchronized void doWait() throws InterruptedException {
-    wait();
+  @Override
+  protected boolean isStepping() {
+    return realMachine.stepping;
   }
 
 }
\ No newline at end of file
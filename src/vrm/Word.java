@@ -50,6 +50,42 @@ public class Word {
     this.symbols = string.toCharArray();
   }
 
+  /**
+   * Symbol at the given position. Doesn't copy the symbols like {@link #getSymbols()} does.
+   */
+  char getSymbol(int index) {
+    return symbols[index];
+  }
+
+  /**
+   * Replaces a single symbol in place.
+   */
+  void setSymbol(int index, char symbol) {
+    symbols[index] = symbol;
+  }
+
+  /**
+   * Replaces all symbols in place with {@link #LENGTH} single byte characters.
+   * @param bytes  source
+   * @param offset position of the first symbol
+   */
+  void read(byte[] bytes, int offset) {
+    for (int i = 0; i < LENGTH; i++) {
+      symbols[i] = (char) (bytes[offset + i] & 0xFF);
+    }
+  }
+
+  /**
+   * Stores all symbols as {@link #LENGTH} single byte characters.
+   * @param bytes  destination
+   * @param offset position of the first symbol
+   */
+  void write(byte[] bytes, int offset) {
+    for (int i = 0; i < LENGTH; i++) {
+      bytes[offset + i] = (byte) symbols[i];
+    }
+  }
+
   @Override
   public String toString() {
     return new String(symbols);
@@ -1,8 +1,7 @@
 package vrm.exceptions;
 
-import com.sun.istack.internal.NotNull;
-
 import vrm.Command;
+import vrm.annotations.NotNull;
 
 /**
  * Exception thrown a {@link Command} is unhandled.
@@ -0,0 +1,19 @@
+package vrm.exceptions;
+
+import vrm.Word;
+
+/**
+ * Thrown when a {@link Word} can't be stored in an external memory format, e.g. a word with symbols outside the
+ * binary format's alphabet.
+ */
+public class UnrepresentableWordException extends IllegalArgumentException {
+
+  public UnrepresentableWordException() {
+    super();
+  }
+
+  public UnrepresentableWordException(String message) {
+    super(message);
+  }
+
+}
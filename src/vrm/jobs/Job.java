@@ -0,0 +1,64 @@
+package vrm.jobs;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import vrm.annotations.NotNull;
+
+/**
+ * Batch job: a program image with keyboard input that's executed by a {@link JobService}.
+ */
+public class Job {
+
+  /**
+   * Default max amount of executed instructions. Prevents endless programs from occupying a RM forever.
+   */
+  public static final long DEFAULT_INSTRUCTION_LIMIT = 1_000_000;
+
+  /**
+   * Program words stored at the beginning of VM memory.
+   */
+  public final List<String> program;
+  /**
+   * Keyboard input consumed by GD commands in order.
+   */
+  public final List<String> input;
+  /**
+   * Max amount of instructions to execute or 0 for no limit.
+   */
+  public final long instructionLimit;
+
+  public Job(@NotNull List<String> program, @NotNull List<String> input, long instructionLimit) {
+    if (instructionLimit < 0) {
+      throw new IllegalArgumentException("Negative instruction limit: " + instructionLimit);
+    }
+
+    this.program = Collections.unmodifiableList(new ArrayList<>(program));
+    this.input = Collections.unmodifiableList(new ArrayList<>(input));
+    this.instructionLimit = instructionLimit;
+  }
+
+  public Job(@NotNull List<String> program, String... input) {
+    this(program, Arrays.asList(input), DEFAULT_INSTRUCTION_LIMIT);
+  }
+
+  /**
+   * Reads a program image with a single word per line (e.g. Code examples/TestCode). Blank lines are ignored.
+   * @param path  program image
+   * @param input keyboard input
+   */
+  public static Job fromFile(@NotNull Path path, String... input) throws IOException {
+    final List<String> program = new ArrayList<>();
+    for (String line : Files.readAllLines(path)) {
+      if (line.trim().isEmpty()) continue;
+      program.add(line);
+    }
+
+    return new Job(program, input);
+  }
+
+}
@@ -0,0 +1,73 @@
+package vrm.jobs;
+
+import java.util.Collections;
+import java.util.List;
+import vrm.annotations.NotNull;
+import vrm.annotations.Nullable;
+
+/**
+ * Outcome of a {@link Job}.
+ */
+public class JobResult {
+
+  public enum Status {
+    /**
+     * Program executed HALT.
+     */
+    HALTED,
+    /**
+     * Program was stopped after executing {@link Job#instructionLimit} instructions.
+     */
+    INSTRUCTION_LIMIT,
+    /**
+     * Machine failed while executing the program. See {@link #error}.
+     */
+    FAILED
+  }
+
+  @NotNull
+  public final Status status;
+  /**
+   * Every word written to the screen in order.
+   */
+  public final List<String> output;
+  /**
+   * Amount of instructions executed by the RM and its VMs.
+   */
+  public final long instructions;
+  /**
+   * Time spent waiting for a free RM.
+   */
+  public final long queueNanos;
+  /**
+   * Wall time spent executing the job.
+   */
+  public final long wallNanos;
+  /**
+   * CPU time spent executing the job. -1 when the JVM doesn't support thread CPU time.
+   */
+  public final long cpuNanos;
+  /**
+   * Failure description for {@link Status#FAILED} jobs.
+   */
+  @Nullable
+  public final String error;
+
+  JobResult(@NotNull Status status, List<String> output, long instructions, long queueNanos, long wallNanos,
+            long cpuNanos, @Nullable String error) {
+    this.status = status;
+    this.output = Collections.unmodifiableList(output);
+    this.instructions = instructions;
+    this.queueNanos = queueNanos;
+    this.wallNanos = wallNanos;
+    this.cpuNanos = cpuNanos;
+    this.error = error;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("%s: %d instructions in %.3f ms (cpu %.3f ms, queued %.3f ms), output %s%s", status,
+        instructions, wallNanos / 1e6, cpuNanos / 1e6, queueNanos / 1e6, output, error == null ? "" : ", " + error);
+  }
+
+}
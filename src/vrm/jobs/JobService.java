@@ -0,0 +1,306 @@
+package vrm.jobs;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import vrm.IoScheduler;
+import vrm.Utils;
+import vrm.VRM;
+import vrm.annotations.NotNull;
+import vrm.annotations.Nullable;
+
+/**
+ * Executes {@link Job}s on a bounded pool of RMs. Every RM is used by a single job at a time and has its own external
+ * memory file. Jobs that don't fit in the queue block the submitter (see {@link #submit(Job)}) or are refused (see
+ * {@link #trySubmit(Job)}).
+ */
+public class JobService implements AutoCloseable {
+
+  private final ExecutorService executor;
+  /**
+   * Free RMs. There's one RM per worker thread, so a worker never waits for a RM.
+   */
+  private final BlockingQueue<VRM> machines;
+  /**
+   * Permits for running and queued jobs.
+   */
+  private final Semaphore permits;
+  private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+  /**
+   * Shared by all RMs, if any.
+   */
+  @Nullable
+  private final IoScheduler ioScheduler;
+  private final File externalMemoryDirectory;
+  /**
+   * Numbers the external memory files of RMs, including replacements of RMs that failed to reset.
+   */
+  private final AtomicInteger machineIds = new AtomicInteger();
+
+  private final long startNanos = System.nanoTime();
+  private final LongAdder submitted = new LongAdder();
+  private final LongAdder completed = new LongAdder();
+  private final LongAdder failed = new LongAdder();
+  private final LongAdder instructions = new LongAdder();
+  private final LongAdder queueNanos = new LongAdder();
+  private final LongAdder wallNanos = new LongAdder();
+  private final LongAdder cpuNanos = new LongAdder();
+
+  /**
+   * @param machineCount          amount of RMs (and worker threads)
+   * @param queueCapacity         amount of jobs that may wait for a free RM
+   * @param externalMemoryDirectory directory for the RMs' external memory files
+   */
+  public JobService(int machineCount, int queueCapacity, @NotNull File externalMemoryDirectory) throws InterruptedException {
+    this(machineCount, queueCapacity, externalMemoryDirectory, null);
+  }
+
+  /**
+   * @param ioSchedulerPolicy when not null, external memory transfers of all RMs go through a single
+   *                          {@link IoScheduler} with this policy
+   * @see #JobService(int, int, File)
+   */
+  public JobService(int machineCount, int queueCapacity, @NotNull File externalMemoryDirectory,
+                    @Nullable IoScheduler.Policy ioSchedulerPolicy) throws InterruptedException {
+    if (machineCount <= 0 || queueCapacity < 0) {
+      throw new IllegalArgumentException(String.format("Invalid pool size (%d) or queue capacity (%d)!", machineCount, queueCapacity));
+    }
+    if (!externalMemoryDirectory.isDirectory() && !externalMemoryDirectory.mkdirs()) {
+      throw new IllegalStateException("Couldn't create external memory directory: " + externalMemoryDirectory);
+    }
+
+    ioScheduler = (ioSchedulerPolicy == null) ? null : new IoScheduler(ioSchedulerPolicy);
+    this.externalMemoryDirectory = externalMemoryDirectory;
+    machines = new ArrayBlockingQueue<>(machineCount);
+    for (int i = 0; i < machineCount; i++) {
+      machines.add(createMachine());
+    }
+
+    permits = new Semaphore(machineCount + queueCapacity);
+
+    final AtomicInteger workerIds = new AtomicInteger();
+    executor = Executors.newFixedThreadPool(machineCount, runnable -> {
+      final Thread thread = new Thread(runnable, "VRM-worker-" + workerIds.getAndIncrement());
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  /**
+   * Queues a job. Blocks while the queue is full.
+   * @return pending job result
+   */
+  public Future<JobResult> submit(@NotNull Job job) throws InterruptedException {
+    permits.acquire();
+    return enqueue(job);
+  }
+
+  /**
+   * Queues a job unless the queue is full.
+   * @return pending job result or null if the queue is full
+   */
+  @Nullable
+  public Future<JobResult> trySubmit(@NotNull Job job) {
+    if (!permits.tryAcquire()) return null;
+    return enqueue(job);
+  }
+
+  private Future<JobResult> enqueue(Job job) {
+    final long submittedAt = System.nanoTime();
+    submitted.increment();
+    try {
+      return executor.submit(() -> {
+        try {
+          return execute(job, submittedAt);
+        } finally {
+          permits.release();
+        }
+      });
+    } catch (RuntimeException e) {
+      permits.release();
+      throw e;
+    }
+  }
+
+  private JobResult execute(Job job, long submittedAt) throws InterruptedException {
+    final VRM vrm = machines.take();
+    final long startedAt = System.nanoTime();
+    final long cpuStartedAt = cpuTime();
+    final List<String> output = new ArrayList<>();
+
+    JobResult.Status status;
+    String error = null;
+    long executed = 0;
+    try {
+      vrm.realMachine.screen.setListener(word -> output.add(word.toString()));
+      for (String word : job.input) {
+        vrm.realMachine.keyboard.feed(Utils.toWord(word));
+      }
+
+      vrm.load(job.program.toArray(new String[0]));
+      vrm.run(job.instructionLimit);
+
+      status = vrm.realMachine.halted ? JobResult.Status.HALTED : JobResult.Status.INSTRUCTION_LIMIT;
+    } catch (InterruptedException e) {
+      // Service is shutting down
+      Thread.currentThread().interrupt();
+      status = JobResult.Status.FAILED;
+      error = "Interrupted";
+    } catch (RuntimeException e) {
+      status = JobResult.Status.FAILED;
+      error = e.toString();
+    } finally {
+      executed = vrm.realMachine.instructions;
+      vrm.realMachine.screen.setListener(null);
+      recycle(vrm);
+    }
+
+    final long finishedAt = System.nanoTime();
+    final long cpuFinishedAt = cpuTime();
+    final long cpu = (cpuStartedAt < 0 || cpuFinishedAt < 0) ? -1 : cpuFinishedAt - cpuStartedAt;
+    final JobResult result = new JobResult(status, output, executed, startedAt - submittedAt, finishedAt - startedAt, cpu, error);
+
+    // Accounting
+    completed.increment();
+    if (status == JobResult.Status.FAILED) {
+      failed.increment();
+    }
+    instructions.add(result.instructions);
+    queueNanos.add(result.queueNanos);
+    wallNanos.add(result.wallNanos);
+    if (cpu >= 0) {
+      cpuNanos.add(cpu);
+    }
+
+    return result;
+  }
+
+  private VRM createMachine() throws InterruptedException {
+    final String path = new File(externalMemoryDirectory,
+        String.format("external_memory_%d.txt", machineIds.getAndIncrement())).getPath();
+    final VRM vrm = new VRM(null, path);
+    vrm.realMachine.stepping = false;
+    vrm.realMachine.setIoScheduler(ioScheduler);
+    // Creates the external memory file
+    vrm.reset();
+    return vrm;
+  }
+
+  /**
+   * Resets a RM and returns it to the pool. A RM that fails to reset is replaced by a new one. The pool never shrinks,
+   * otherwise jobs would eventually wait for a free RM forever.
+   */
+  private void recycle(VRM vrm) throws InterruptedException {
+    VRM next = vrm;
+    try {
+      vrm.reset();
+    } catch (RuntimeException e) {
+      e.printStackTrace();
+      vrm.realMachine.close();
+      try {
+        next = createMachine();
+      } catch (RuntimeException replacementFailure) {
+        // Jobs on the broken RM fail instead of waiting
+        replacementFailure.printStackTrace();
+      }
+    } finally {
+      machines.add(next);
+    }
+  }
+
+  /**
+   * @return current thread's CPU time or -1 if unsupported
+   */
+  private long cpuTime() {
+    return threads.isCurrentThreadCpuTimeSupported() ? threads.getCurrentThreadCpuTime() : -1;
+  }
+
+  public long getSubmittedJobs() {
+    return submitted.sum();
+  }
+
+  public long getCompletedJobs() {
+    return completed.sum();
+  }
+
+  public long getFailedJobs() {
+    return failed.sum();
+  }
+
+  public long getInstructions() {
+    return instructions.sum();
+  }
+
+  public long getQueueNanos() {
+    return queueNanos.sum();
+  }
+
+  public long getWallNanos() {
+    return wallNanos.sum();
+  }
+
+  public long getCpuNanos() {
+    return cpuNanos.sum();
+  }
+
+  /**
+   * @return scheduler shared by the RMs or null if they access external memory directly
+   */
+  @Nullable
+  public IoScheduler getIoScheduler() {
+    return ioScheduler;
+  }
+
+  /**
+   * @return completed jobs per second since the service was created
+   */
+  public double getJobsPerSecond() {
+    return completed.sum() / ((System.nanoTime() - startNanos) / 1e9);
+  }
+
+  /**
+   * @return executed instructions per second since the service was created
+   */
+  public double getInstructionsPerSecond() {
+    return instructions.sum() / ((System.nanoTime() - startNanos) / 1e9);
+  }
+
+  @Override
+  public String toString() {
+    return String.format("%d/%d jobs completed (%d failed), %.1f jobs/s, %.0f instructions/s", getCompletedJobs(),
+        getSubmittedJobs(), getFailedJobs(), getJobsPerSecond(), getInstructionsPerSecond());
+  }
+
+  /**
+   * Stops accepting jobs, waits for queued ones to finish and closes the RMs' external memory files.
+   * When interrupted, running jobs are interrupted as well and only the free RMs are closed.
+   */
+  @Override
+  public void close() {
+    executor.shutdown();
+    try {
+      executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+    } catch (InterruptedException e) {
+      executor.shutdownNow();
+      Thread.currentThread().interrupt();
+    }
+    if (ioScheduler != null) {
+      ioScheduler.close();
+    }
+    for (VRM vrm : machines) {
+      vrm.realMachine.close();
+    }
+  }
+
+}